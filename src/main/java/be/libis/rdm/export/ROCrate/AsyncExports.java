@@ -0,0 +1,166 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs exports in the background, one task per export. On Java 21 and later
+ * each task gets a virtual thread, so exports waiting for a slow output stream
+ * or for admission do not hold a platform thread, and at most parallelism of
+ * them run at the same time, the others wait in their task. On older JVMs the
+ * tasks run on a fixed pool of parallelism daemon platform threads, and the
+ * others wait in the queue of the pool without holding a thread. Cancelling a
+ * returned future interrupts its export.
+ *
+ * Exporters share one instance, made when the first async export is submitted,
+ * with the parallelism of rocrate.export.asyncParallelism (default: the
+ * maximum concurrent exports of the shared ExportAdmission).
+ */
+public class AsyncExports {
+
+    private static final class Shared {
+        static final AsyncExports INSTANCE = new AsyncExports(Integer.getInteger("rocrate.export.asyncParallelism",
+                ExportAdmission.getShared().getMaxConcurrentExports()));
+    }
+
+    /**
+     * An export that can throw, like exportDataset, and returns its result,
+     * e.g. the fingerprint of the export.
+     */
+    public interface Export<T> {
+        T run() throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final int parallelism;
+    private final Semaphore running;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+
+    public AsyncExports(final int parallelism) {
+        ExecutorService virtualThreadExecutor = null;
+        try {
+            // Executors.newVirtualThreadPerTaskExecutor(), which Java 17 does not have
+            virtualThreadExecutor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            virtualThreadExecutor = null;
+        }
+        this.parallelism = Math.max(1, parallelism);
+        this.virtualThreads = virtualThreadExecutor != null;
+        this.executor = this.virtualThreads ? virtualThreadExecutor
+                : Executors.newFixedThreadPool(this.parallelism, daemonThreads());
+        this.running = new Semaphore(this.parallelism, true);
+    }
+
+    public static AsyncExports getShared() {
+        /*
+         * The async exports of all exporters that did not set their own
+         * parallelism. It is never shut down; its threads are daemon or virtual
+         * threads.
+         */
+        return Shared.INSTANCE;
+    }
+
+    static ThreadFactory daemonThreads() {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "rocrate-export-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public <T> CompletableFuture<T> submit(final Export<T> export) {
+        /*
+         * Starts the export and returns its future, completed with the result of
+         * the export, or exceptionally with the exception of a failed export.
+         */
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        submitted.incrementAndGet();
+        final Future<?> task = executor.submit(() -> {
+            try {
+                running.acquire();
+            } catch (InterruptedException e) {
+                result.completeExceptionally(new CancellationException("Export cancelled while waiting to run"));
+                return;
+            }
+            active.incrementAndGet();
+            try {
+                if (!result.isDone()) {
+                    result.complete(export.run());
+                }
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                active.decrementAndGet();
+                running.release();
+            }
+        });
+        result.whenComplete((value, exception) -> {
+            if (result.isCancelled()) {
+                cancelled.incrementAndGet();
+                task.cancel(true);
+            } else if (exception != null) {
+                failed.incrementAndGet();
+            } else {
+                completed.incrementAndGet();
+            }
+        });
+        return result;
+    }
+
+    public void shutdown() {
+        /*
+         * Lets the submitted exports finish, without accepting new ones.
+         */
+        executor.shutdown();
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getActiveExports() {
+        return active.get();
+    }
+
+    public long getSubmittedExports() {
+        return submitted.get();
+    }
+
+    public long getCompletedExports() {
+        return completed.get();
+    }
+
+    public long getFailedExports() {
+        return failed.get();
+    }
+
+    public long getCancelledExports() {
+        return cancelled.get();
+    }
+
+    @Override
+    public String toString() {
+        return "virtualThreads=" + usesVirtualThreads() + ", parallelism=" + getParallelism() + ", active="
+                + getActiveExports() + ", submitted=" + getSubmittedExports() + ", completed="
+                + getCompletedExports() + ", failed=" + getFailedExports() + ", cancelled=" + getCancelledExports();
+    }
+}
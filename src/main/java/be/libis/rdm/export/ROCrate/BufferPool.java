@@ -0,0 +1,164 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the byte buffers exports serialize into, so exports in a steady state
+ * reuse buffers instead of allocating new ones. Buffers come in size classes,
+ * powers of two from MIN_BUFFER_SIZE to MAX_BUFFER_SIZE. The pool keeps at most
+ * maxRetainedBytes of free buffers and at most maxBuffersPerClass of each size;
+ * buffers released over those caps are left to the garbage collector.
+ *
+ * The defaults can be set with the system properties
+ * rocrate.export.bufferPool.maxRetainedMb, rocrate.export.bufferPool.maxPerClass
+ * and rocrate.export.bufferPool.direct. All exporters use the same shared pool
+ * by default.
+ */
+public class BufferPool {
+
+    private static final class Shared {
+        // made on first use, after the system properties are set
+        static final BufferPool INSTANCE = new BufferPool();
+    }
+
+    static final int MIN_BUFFER_SIZE = 4 * 1024;
+    static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    static final int SIZE_CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE)
+            - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE) + 1;
+
+    private final long maxRetainedBytes;
+    private final int maxBuffersPerClass;
+    private final boolean direct;
+
+    private final List<ConcurrentLinkedDeque<ByteBuffer>> freeBuffers;
+    private final AtomicInteger[] freeBufferCounts;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    public BufferPool() {
+        this(Long.getLong("rocrate.export.bufferPool.maxRetainedMb", 16L) * 1024 * 1024,
+                Integer.getInteger("rocrate.export.bufferPool.maxPerClass", 2 * Runtime.getRuntime().availableProcessors()),
+                Boolean.getBoolean("rocrate.export.bufferPool.direct"));
+    }
+
+    public BufferPool(final long maxRetainedBytes, final int maxBuffersPerClass, final boolean direct) {
+        /*
+         * direct buffers live outside the heap. Written to an OutputStream they are
+         * copied through a small heap array, so they only pay off when the heap
+         * is the constraint.
+         */
+        this.maxRetainedBytes = Math.max(0, maxRetainedBytes);
+        this.maxBuffersPerClass = Math.max(0, maxBuffersPerClass);
+        this.direct = direct;
+        this.freeBuffers = new ArrayList<ConcurrentLinkedDeque<ByteBuffer>>(SIZE_CLASS_COUNT);
+        this.freeBufferCounts = new AtomicInteger[SIZE_CLASS_COUNT];
+        for (int i = 0; i < SIZE_CLASS_COUNT; i++) {
+            this.freeBuffers.add(new ConcurrentLinkedDeque<ByteBuffer>());
+            this.freeBufferCounts[i] = new AtomicInteger();
+        }
+    }
+
+    public static BufferPool getShared() {
+        /*
+         * The pool of all exporters of the node, with the default caps.
+         */
+        return Shared.INSTANCE;
+    }
+
+    static int getSizeClass(final int capacity) {
+        /*
+         * The smallest size class that holds capacity bytes; capacities over
+         * MAX_BUFFER_SIZE get the largest class.
+         */
+        final int size = Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, capacity));
+        final int roundedSize = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+        return Integer.numberOfTrailingZeros(roundedSize) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+
+    public ByteBuffer acquire(final int capacity) {
+        /*
+         * A cleared buffer of the size class of capacity, reused if the pool has
+         * one. The buffer may be larger than asked for, never smaller unless
+         * capacity exceeds MAX_BUFFER_SIZE.
+         */
+        final int sizeClass = getSizeClass(capacity);
+        acquired.incrementAndGet();
+        final ByteBuffer buffer = freeBuffers.get(sizeClass).pollFirst();
+        if (buffer != null) {
+            freeBufferCounts[sizeClass].decrementAndGet();
+            retainedBytes.addAndGet(-buffer.capacity());
+            reused.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        final int size = MIN_BUFFER_SIZE << sizeClass;
+        allocatedBytes.addAndGet(size);
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    public void release(final ByteBuffer buffer) {
+        /*
+         * Gives a buffer from acquire back. Buffers not made by a pool of this kind
+         * are ignored.
+         */
+        final int capacity = buffer.capacity();
+        if (capacity < MIN_BUFFER_SIZE || capacity > MAX_BUFFER_SIZE || Integer.bitCount(capacity) != 1
+                || buffer.isDirect() != direct) {
+            discarded.incrementAndGet();
+            return;
+        }
+        final int sizeClass = getSizeClass(capacity);
+        if (freeBufferCounts[sizeClass].incrementAndGet() > maxBuffersPerClass) {
+            freeBufferCounts[sizeClass].decrementAndGet();
+            discarded.incrementAndGet();
+            return;
+        }
+        if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-capacity);
+            freeBufferCounts[sizeClass].decrementAndGet();
+            discarded.incrementAndGet();
+            return;
+        }
+        freeBuffers.get(sizeClass).offerFirst(buffer);
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public long getAcquiredBuffers() {
+        return acquired.get();
+    }
+
+    public long getReusedBuffers() {
+        return reused.get();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public long getDiscardedBuffers() {
+        return discarded.get();
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "acquired=" + getAcquiredBuffers() + ", reused=" + getReusedBuffers() + ", allocatedBytes="
+                + getAllocatedBytes() + ", discarded=" + getDiscardedBuffers() + ", retainedBytes="
+                + getRetainedBytes();
+    }
+}
@@ -2,7 +2,6 @@ package be.libis.rdm.export.ROCrate;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Scanner;
@@ -23,6 +22,17 @@ public class CSV {
         rowsByEntity = readMappingsCsv(filename);
     }
 
+    CSV(LinkedHashMap<String, ArrayList<Map<String, String>>> rowsByEntity) {
+        /*
+         * For rows that were already read, e.g. from a mapping plan snapshot.
+         */
+        this.rowsByEntity = rowsByEntity;
+    }
+
+    LinkedHashMap<String, ArrayList<Map<String, String>>> getAllRowsByEntity() {
+        return this.rowsByEntity;
+    }
+
     public ArrayList<Map<String, String>> getRowsByEntity(String entityName) throws Exception {
         /*
          * Returns all the Csv rows containing the entity type. 
@@ -109,7 +119,7 @@ public class CSV {
         ArrayList<Map<String, String>> rows = new ArrayList<>();
         while (scanner.hasNext()) {
             csvLine = scanner.nextLine();
-            final Map<String, String> currentRow = new HashMap<String, String>();
+            final Map<String, String> currentRow = new LinkedHashMap<String, String>();
 
             final String[] line = csvLine.split(",");
 
@@ -0,0 +1,137 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import jakarta.json.JsonObject;
+
+/**
+ * Collects the files of a dataset into the file entity map used for the data
+ * entities. Without a pool, files are added as they come in. With a pool, the
+ * files are cut into chunks whose folder/file trees are built in parallel, and
+ * the partial trees are merged in chunk order: the result, including the order
+ * of the entities and of hasPart, is the same as when adding the files one by
+ * one.
+ */
+public class DataEntityCollector implements Consumer<JsonObject> {
+
+    static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    // identify the data entities by their paths, see ROCrateExporter.addDataEntity
+    private final boolean pathIds;
+    private final Map<String, LinkedHashMap<String, Object>> fileEntityMap = new LinkedHashMap<String, LinkedHashMap<String, Object>>();
+    // label and directory label of the files of the chunk being filled
+    private List<String[]> chunk;
+    private int fileCount = 0;
+    private final List<Future<Map<String, LinkedHashMap<String, Object>>>> partialMaps = new ArrayList<Future<Map<String, LinkedHashMap<String, Object>>>>();
+
+    public DataEntityCollector() {
+        this(null, DEFAULT_CHUNK_SIZE);
+    }
+
+    public DataEntityCollector(final ForkJoinPool pool, final int chunkSize) {
+        this(pool, chunkSize, false);
+    }
+
+    public DataEntityCollector(final ForkJoinPool pool, final int chunkSize, final boolean pathIds) {
+        this.pool = pool;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.pathIds = pathIds;
+        this.chunk = new ArrayList<String[]>();
+    }
+
+    @Override
+    public void accept(final JsonObject file) {
+        final String label = file.getString("label", null);
+        final String directoryLabel = file.getString("directoryLabel", null);
+        fileCount++;
+        if (pool == null) {
+            ROCrateExporter.addDataEntity(label, directoryLabel, fileEntityMap, pathIds);
+            return;
+        }
+        chunk.add(new String[] { label, directoryLabel });
+        if (chunk.size() >= chunkSize) {
+            submitChunk();
+        }
+    }
+
+    void submitChunk() {
+        final List<String[]> files = chunk;
+        chunk = new ArrayList<String[]>();
+        partialMaps.add(pool.submit(() -> {
+            final Map<String, LinkedHashMap<String, Object>> partialMap = new LinkedHashMap<String, LinkedHashMap<String, Object>>();
+            for (String[] file : files) {
+                ROCrateExporter.addDataEntity(file[0], file[1], partialMap, pathIds);
+            }
+            return partialMap;
+        }));
+    }
+
+    static void merge(final Map<String, LinkedHashMap<String, Object>> partialMap,
+            final Map<String, LinkedHashMap<String, Object>> fileEntityMap) {
+        /*
+         * Adds the entities of a later chunk. Entities already seen keep their
+         * place; new parts of a folder are appended to its hasPart.
+         */
+        for (Map.Entry<String, LinkedHashMap<String, Object>> entry : partialMap.entrySet()) {
+            final LinkedHashMap<String, Object> entity = fileEntityMap.get(entry.getKey());
+            if (entity == null) {
+                fileEntityMap.put(entry.getKey(), entry.getValue());
+            } else if (entity.get("hasPart") instanceof PartList && entry.getValue().get("hasPart") instanceof List) {
+                // both made by ROCrateExporter.getFolderEntity
+                final PartList hasPart = (PartList) entity.get("hasPart");
+                for (Object part : (List<?>) entry.getValue().get("hasPart")) {
+                    if (part instanceof String && !hasPart.contains(part)) {
+                        hasPart.add((String) part);
+                    }
+                }
+            }
+        }
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public Map<String, LinkedHashMap<String, Object>> getFileEntityMap() throws InterruptedException, ExecutionException {
+        /*
+         * The file entity map of all files accepted so far. In parallel mode this
+         * waits for the chunks and merges them; if a chunk failed, the chunks
+         * after it are cancelled.
+         */
+        if (pool != null) {
+            if (!chunk.isEmpty()) {
+                submitChunk();
+            }
+            try {
+                for (Future<Map<String, LinkedHashMap<String, Object>>> partialMap : partialMaps) {
+                    merge(partialMap.get(), fileEntityMap);
+                }
+            } finally {
+                cancel();
+            }
+        }
+        return fileEntityMap;
+    }
+
+    public void cancel() {
+        /*
+         * Cancels the chunks that are still waiting or running, e.g. when reading
+         * the dataset failed before getFileEntityMap was called. Chunks that are
+         * done are left as they are.
+         */
+        for (Future<Map<String, LinkedHashMap<String, Object>>> partialMap : partialMaps) {
+            partialMap.cancel(true);
+        }
+        partialMaps.clear();
+        chunk = new ArrayList<String[]>();
+    }
+}
@@ -0,0 +1,237 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParserFactory;
+
+import be.libis.rdm.export.ROCrate.builder.ROCrateEntity;
+
+/**
+ * Scans the dataset JSON in a single pass with a pull parser. Only the
+ * sub-trees referenced by the mappings are materialized, and the files of the
+ * dataset version are handed to a consumer one at a time instead of being kept
+ * in the result.
+ */
+public class DatasetJsonScanner {
+
+    static final List<String> FILES_PATH = List.of("datasetVersion", "files");
+
+    static final JsonParserFactory PARSER_FACTORY = ROCrateEntity.PROVIDER.createParserFactory(Map.of());
+
+    private final Set<List<String>> referencedPaths;
+
+    public DatasetJsonScanner(final Collection<List<String>> referencedPaths) {
+        this.referencedPaths = new LinkedHashSet<List<String>>(referencedPaths);
+    }
+
+    public static JsonParser createParser(final JsonObject datasetJson) {
+        return PARSER_FACTORY.createParser(datasetJson);
+    }
+
+    public static JsonParser createParser(final InputStream datasetJson) {
+        return PARSER_FACTORY.createParser(datasetJson);
+    }
+
+    static List<String> getSourcePath(final String source, final String field) {
+        /*
+         * The path of keys the mapping reads from, mirroring getJsonPath.
+         * Metadata blocks keep their whole "fields" array, since fields are
+         * selected by typeName rather than by key.
+         */
+        final List<String> path = new ArrayList<String>();
+        if (!source.isBlank()) {
+            path.addAll(Arrays.asList(source.strip().split("/")));
+        }
+        if (!source.contains("metadataBlocks") && !field.isBlank()) {
+            path.add(field.strip());
+        }
+        return path;
+    }
+
+    public static Set<List<String>> getReferencedPaths(final CSV csv) throws Exception {
+        /*
+         * Collects the paths in the dataset JSON that the mappings in the csv read
+         * from. Rows without a source and field read a top-level key named in
+         * "value", unless the value is fixed or refers to another entity.
+         */
+        final Set<List<String>> paths = new LinkedHashSet<List<String>>();
+        for (String entityName : csv.getEntityNames()) {
+            final List<Map<String, String>> rows = csv.getRowsByEntity(entityName);
+            final Map<String, String> entityRow = rows.get(0);
+            if (!entityRow.get("source").isBlank() || !entityRow.get("sourceField").isBlank()) {
+                // contextual entity: all properties are read from the same source
+                paths.add(getSourcePath(entityRow.get("source"), entityRow.get("sourceField")));
+                continue;
+            }
+            for (Map<String, String> row : rows) {
+                String source = row.get("source");
+                String field = row.get("sourceField");
+                String value = row.get("value");
+                if (!source.isBlank() || !field.isBlank()) {
+                    paths.add(getSourcePath(source, field));
+                } else if (!value.isBlank() && !value.contains("refersTo:")
+                        && !value.startsWith("\"") && !value.startsWith("'")) {
+                    for (String key : value.split(",")) {
+                        if (!key.isBlank()) {
+                            paths.add(List.of(key.strip()));
+                        }
+                    }
+                }
+            }
+        }
+        return paths;
+    }
+
+    boolean isReferenced(final List<String> path) {
+        /*
+         * True if the value at path is (part of) a referenced sub-tree.
+         */
+        for (List<String> referencedPath : referencedPaths) {
+            if (path.size() >= referencedPath.size()
+                    && path.subList(0, referencedPath.size()).equals(referencedPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isOnReferencedPath(final List<String> path) {
+        /*
+         * True if a referenced sub-tree lies below path.
+         */
+        for (List<String> referencedPath : referencedPaths) {
+            if (referencedPath.size() > path.size()
+                    && referencedPath.subList(0, path.size()).equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isOnFilesPath(final List<String> path) {
+        return path.size() < FILES_PATH.size() && FILES_PATH.subList(0, path.size()).equals(path);
+    }
+
+    public JsonObject scan(final JsonParser parser, final Consumer<JsonObject> fileConsumer) {
+        /*
+         * Reads the dataset JSON from the parser and returns a copy that only
+         * contains the referenced sub-trees and the top-level scalar values. Each
+         * file in datasetVersion.files is passed to fileConsumer as soon as it is
+         * read.
+         */
+        if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+            throw new IllegalArgumentException("The dataset JSON is not an object.");
+        }
+        return scanObject(parser, new ArrayList<String>(), fileConsumer);
+    }
+
+    JsonObject scanObject(final JsonParser parser, final List<String> path, final Consumer<JsonObject> fileConsumer) {
+        final JsonObjectBuilder result = ROCrateEntity.BUILDER_FACTORY.createObjectBuilder();
+        while (parser.hasNext()) {
+            JsonParser.Event event = parser.next();
+            if (event == JsonParser.Event.END_OBJECT) {
+                break;
+            }
+            final String key = parser.getString();
+            final List<String> childPath = new ArrayList<String>(path);
+            childPath.add(key);
+            event = parser.next();
+
+            if (childPath.equals(FILES_PATH) && event == JsonParser.Event.START_ARRAY) {
+                JsonArrayBuilder files = isReferenced(childPath) ? ROCrateEntity.BUILDER_FACTORY.createArrayBuilder() : null;
+                while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+                    JsonValue file = readValue(parser, event);
+                    if (file instanceof JsonObject) {
+                        fileConsumer.accept((JsonObject) file);
+                    }
+                    if (files != null) {
+                        files.add(file);
+                    }
+                }
+                if (files != null) {
+                    result.add(key, files);
+                }
+            } else if (event == JsonParser.Event.START_OBJECT && isOnFilesPath(childPath)) {
+                // descend, so the files are streamed even when their parent is referenced
+                result.add(key, scanObject(parser, childPath, fileConsumer));
+            } else if (isReferenced(childPath)) {
+                result.add(key, readValue(parser, event));
+            } else if (event == JsonParser.Event.START_OBJECT && isOnReferencedPath(childPath)) {
+                result.add(key, scanObject(parser, childPath, fileConsumer));
+            } else if (event == JsonParser.Event.START_OBJECT || event == JsonParser.Event.START_ARRAY) {
+                skip(parser);
+            } else if (path.isEmpty()) {
+                result.add(key, readValue(parser, event));
+            }
+        }
+        return result.build();
+    }
+
+    static void skip(final JsonParser parser) {
+        /*
+         * Skips the object or array that was just opened, without building it.
+         */
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    static JsonValue readValue(final JsonParser parser, final JsonParser.Event event) {
+        /*
+         * Builds the value that starts at event.
+         */
+        switch (event) {
+            case START_OBJECT: {
+                final JsonObjectBuilder object = ROCrateEntity.BUILDER_FACTORY.createObjectBuilder();
+                while (parser.next() != JsonParser.Event.END_OBJECT) {
+                    final String key = parser.getString();
+                    object.add(key, readValue(parser, parser.next()));
+                }
+                return object.build();
+            }
+            case START_ARRAY: {
+                final JsonArrayBuilder array = ROCrateEntity.BUILDER_FACTORY.createArrayBuilder();
+                JsonParser.Event next;
+                while ((next = parser.next()) != JsonParser.Event.END_ARRAY) {
+                    array.add(readValue(parser, next));
+                }
+                return array.build();
+            }
+            case VALUE_STRING:
+                return ROCrateEntity.PROVIDER.createValue(parser.getString());
+            case VALUE_NUMBER:
+                return ROCrateEntity.PROVIDER.createValue(parser.getBigDecimal());
+            case VALUE_TRUE:
+                return JsonValue.TRUE;
+            case VALUE_FALSE:
+                return JsonValue.FALSE;
+            default:
+                return JsonValue.NULL;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.json.JsonObject;
+
+import be.libis.rdm.export.ROCrate.builder.ROCrateBuilder;
+import be.libis.rdm.export.ROCrate.builder.ROCrateEntity;
+
+/**
+ * Splits the data entities of a dataset with many files over several metadata
+ * documents. Each document holds at most a fixed number of data entities
+ * (unless a single folder has more files than that); folders that do not fit
+ * are replaced by a stub that links to a separate ro-crate-metadata.json for
+ * that folder.
+ *
+ * A detached document is written at <folder>/ro-crate-metadata.json, so its
+ * ids are relative to the folder: the folder itself is "./", the root of its
+ * metadata descriptor, and every other id is rewritten to resolve to the same
+ * place as in the document it was detached from.
+ */
+public class DetachedDataEntities {
+
+    static final String ROOT_ID = "./";
+    static final String METADATA_DOCUMENT = "ro-crate-metadata.json";
+
+    /**
+     * Receives the detached metadata documents, one at a time.
+     */
+    public interface DocumentSink {
+        void write(String documentId, JsonObject document) throws Exception;
+    }
+
+    private final Map<String, LinkedHashMap<String, Object>> fileEntityMap;
+    private final int maxDataEntitiesPerDocument;
+    // data entity id -> id of the folder whose document contains it
+    private final Map<String, String> owners = new HashMap<String, String>();
+    private final Map<String, Integer> subtreeSizes = new HashMap<String, Integer>();
+    // detached folder -> folder of the document it was detached from, in the
+    // order the documents are written
+    private final LinkedHashMap<String, String> detachedFolders = new LinkedHashMap<String, String>();
+    // folder of a document -> ids of its entities and stubs, in fileEntityMap order
+    private final Map<String, List<String>> documentEntityIds = new HashMap<String, List<String>>();
+
+    public DetachedDataEntities(final Map<String, LinkedHashMap<String, Object>> fileEntityMap,
+            final int maxDataEntitiesPerDocument) {
+        this.fileEntityMap = fileEntityMap;
+        this.maxDataEntitiesPerDocument = maxDataEntitiesPerDocument;
+        if (maxDataEntitiesPerDocument > 0 && fileEntityMap.size() > maxDataEntitiesPerDocument
+                && fileEntityMap.containsKey(ROOT_ID)) {
+            planDocuments();
+        }
+        groupDocumentEntities();
+    }
+
+    public static String getDocumentId(final String folderId) {
+        return folderId + METADATA_DOCUMENT;
+    }
+
+    public Set<String> getDetachedFolders() {
+        return detachedFolders.keySet();
+    }
+
+    static boolean isFolder(final String id) {
+        return id.endsWith("/");
+    }
+
+    List<String> getHasPart(final String folderId) {
+        final LinkedHashMap<String, Object> folder = fileEntityMap.get(folderId);
+        final Object hasPart = folder == null ? null : folder.get("hasPart");
+        if (hasPart instanceof PartList) {
+            // made by addDataEntity
+            return (PartList) hasPart;
+        }
+        final List<String> parts = new ArrayList<String>();
+        if (hasPart instanceof List) {
+            for (Object part : (List<?>) hasPart) {
+                if (part instanceof String) {
+                    parts.add((String) part);
+                }
+            }
+        }
+        return parts;
+    }
+
+    static String getRelativeId(final String id, final String documentFolderId) {
+        /*
+         * The id, relative to the root of the crate, as seen from the document
+         * of documentFolderId: "./" for the folder itself, the rest of the path
+         * for what is below it and "../" up to the root for anything else.
+         */
+        if (documentFolderId.equals(ROOT_ID)) {
+            return id;
+        }
+        if (id.equals(documentFolderId)) {
+            return ROOT_ID;
+        }
+        if (id.startsWith(documentFolderId)) {
+            return id.substring(documentFolderId.length());
+        }
+        final StringBuilder relativeId = new StringBuilder();
+        for (int i = documentFolderId.indexOf('/'); i >= 0; i = documentFolderId.indexOf('/', i + 1)) {
+            relativeId.append("../");
+        }
+        return relativeId.append(id.equals(ROOT_ID) ? "" : id).toString();
+    }
+
+    LinkedHashMap<String, Object> getRelativeEntity(final String id, final String documentFolderId) {
+        // the data entity with its @id and hasPart as seen from the document
+        final LinkedHashMap<String, Object> entity = new LinkedHashMap<String, Object>(fileEntityMap.get(id));
+        entity.put("@id", getRelativeId(id, documentFolderId));
+        if (entity.containsKey("hasPart")) {
+            final List<String> hasPart = new ArrayList<String>();
+            for (String part : getHasPart(id)) {
+                hasPart.add(getRelativeId(part, documentFolderId));
+            }
+            entity.put("hasPart", hasPart);
+        }
+        return entity;
+    }
+
+    int getSubtreeSize(final String folderId, final Set<String> visiting) {
+        /*
+         * Number of data entities in the folder and everything below it. Folder ids
+         * are not unique paths unless the crate has path ids, so a folder can
+         * (indirectly) contain itself; such cycles are only counted once.
+         */
+        Integer size = subtreeSizes.get(folderId);
+        if (size != null) {
+            return size;
+        }
+        if (!visiting.add(folderId)) {
+            return 0;
+        }
+        int result = 1;
+        for (String part : getHasPart(folderId)) {
+            result += isFolder(part) ? getSubtreeSize(part, visiting) : 1;
+        }
+        visiting.remove(folderId);
+        subtreeSizes.put(folderId, result);
+        return result;
+    }
+
+    void inline(final String folderId, final String documentFolderId) {
+        /*
+         * Puts the folder and everything below it in the document of
+         * documentFolderId.
+         */
+        final Deque<String> pending = new ArrayDeque<String>();
+        pending.push(folderId);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (owners.putIfAbsent(id, documentFolderId) != null) {
+                continue;
+            }
+            if (isFolder(id)) {
+                List<String> hasPart = getHasPart(id);
+                for (int i = hasPart.size() - 1; i >= 0; i--) {
+                    pending.push(hasPart.get(i));
+                }
+            }
+        }
+    }
+
+    void planDocuments() {
+        /*
+         * Fills the documents breadth first, starting at the root folder. Files
+         * always stay with their folder; a sub-folder is kept in the document if
+         * its whole sub-tree fits, and gets a document of its own otherwise.
+         */
+        final Deque<String> documents = new ArrayDeque<String>();
+        documents.add(ROOT_ID);
+        while (!documents.isEmpty()) {
+            final String documentFolderId = documents.poll();
+            owners.put(documentFolderId, documentFolderId);
+            int remaining = maxDataEntitiesPerDocument - 1;
+
+            for (String part : getHasPart(documentFolderId)) {
+                if (owners.containsKey(part)) {
+                    continue;
+                }
+                if (!isFolder(part)) {
+                    owners.put(part, documentFolderId);
+                    remaining--;
+                } else if (getSubtreeSize(part, new HashSet<String>()) <= remaining) {
+                    remaining -= getSubtreeSize(part, new HashSet<String>());
+                    inline(part, documentFolderId);
+                } else {
+                    // the stub of the folder and the entity of its document
+                    owners.put(part, part);
+                    detachedFolders.put(part, documentFolderId);
+                    documents.add(part);
+                    remaining -= 2;
+                }
+            }
+        }
+    }
+
+    String getOwner(final String id) {
+        String owner = owners.get(id);
+        return owner == null ? ROOT_ID : owner;
+    }
+
+    void groupDocumentEntities() {
+        for (String id : fileEntityMap.keySet()) {
+            documentEntityIds.computeIfAbsent(getOwner(id), k -> new ArrayList<String>()).add(id);
+            String parentDocument = detachedFolders.get(id);
+            if (parentDocument != null) {
+                documentEntityIds.computeIfAbsent(parentDocument, k -> new ArrayList<String>()).add(id);
+            }
+        }
+    }
+
+    void putDocumentEntities(final String documentFolderId, final ROCrateBuilder roCrateBuilder) {
+        /*
+         * Puts the data entities of the document of documentFolderId in the
+         * builder, with stubs for the folders detached from it.
+         */
+        for (String id : documentEntityIds.getOrDefault(documentFolderId, List.of())) {
+            if (!documentFolderId.equals(getOwner(id))) {
+                putStub(id, documentFolderId, roCrateBuilder);
+            } else if (documentFolderId.equals(ROOT_ID)) {
+                ROCrateExporter.putDataEntity(id, fileEntityMap.get(id), roCrateBuilder);
+            } else {
+                ROCrateExporter.putDataEntity(getRelativeId(id, documentFolderId),
+                        getRelativeEntity(id, documentFolderId), roCrateBuilder);
+            }
+        }
+    }
+
+    static void putStub(final String folderId, final String documentFolderId, final ROCrateBuilder roCrateBuilder) {
+        final String stubId = getRelativeId(folderId, documentFolderId);
+        final String documentId = getRelativeId(getDocumentId(folderId), documentFolderId);
+        final ROCrateEntity stub = new ROCrateEntity();
+        stub.putProperty("@id", stubId);
+        stub.putProperty("@type", "Dataset");
+        stub.putProperty("subjectOf", documentId, documentId);
+        roCrateBuilder.put(stubId, stub);
+
+        final ROCrateEntity document = new ROCrateEntity();
+        document.putProperty("@id", documentId);
+        document.putProperty("@type", "CreativeWork");
+        document.putProperty("encodingFormat", "application/ld+json");
+        document.putProperty("about", stubId, stubId);
+        roCrateBuilder.put(documentId, document);
+    }
+
+    public void putRootDataEntities(final ROCrateBuilder roCrateBuilder) {
+        /*
+         * Puts the data entities of the root document in the builder.
+         */
+        putDocumentEntities(ROOT_ID, roCrateBuilder);
+    }
+
+    public void writeDetachedDocuments(final DocumentSink sink) throws Exception {
+        /*
+         * Builds the detached documents one by one and passes them to the sink, so
+         * only one of them is in memory at a time.
+         */
+        for (String folderId : detachedFolders.keySet()) {
+            final ROCrateBuilder roCrateBuilder = new ROCrateBuilder();
+            final ROCrateEntity metadata = new ROCrateEntity();
+            metadata.putProperty("@id", METADATA_DOCUMENT);
+            metadata.putProperty("@type", "CreativeWork");
+            metadata.putProperty("conformsTo", "https://w3id.org/ro/crate/1.1", "https://w3id.org/ro/crate/1.1");
+            metadata.putProperty("about", ROOT_ID, ROOT_ID);
+            roCrateBuilder.put(METADATA_DOCUMENT, metadata);
+            putDocumentEntities(folderId, roCrateBuilder);
+            sink.write(getDocumentId(folderId), roCrateBuilder.build());
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.gdcc.spi.export.ExportException;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+
+/**
+ * Limits the exports running at the same time, both in number and in the
+ * memory they are estimated to need. Exports over the limits wait in a queue
+ * of bounded length for a bounded time, and are rejected with an
+ * ExportException when either bound is exceeded.
+ *
+ * The defaults can be set with the system properties
+ * rocrate.export.maxConcurrent, rocrate.export.memoryBudgetMb,
+ * rocrate.export.maxQueued and rocrate.export.queueTimeoutMs.
+ *
+ * All exporters use the same shared admission by default, so the limits hold
+ * for the whole node, whichever RO-Crate formats are exported.
+ */
+public class ExportAdmission {
+
+    private static final class Shared {
+        // made on first use, after the system properties are set
+        static final ExportAdmission INSTANCE = new ExportAdmission();
+    }
+
+    // Rough heap use of an export: the dataset JSON, the copy of its referenced
+    // parts, the crate and its serialization, per file and for the metadata.
+    static final long BYTES_PER_FILE = 4 * 1024;
+    static final long BYTES_PER_DATASET = 256 * 1024;
+    // Memory is counted in permits of 1 KiB, so budgets up to 2 TiB fit an int.
+    static final long BYTES_PER_PERMIT = 1024;
+
+    private final int maxConcurrentExports;
+    private final long memoryBudgetBytes;
+    private final int maxQueuedExports;
+    private final long queueTimeoutMillis;
+
+    private final int memoryPermitCount;
+    private final Semaphore exportPermits;
+    private final Semaphore memoryPermits;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Released when the export is done.
+     */
+    public final class Permit implements AutoCloseable {
+        private final int memory;
+        private boolean closed = false;
+
+        Permit(final int memory) {
+            this.memory = memory;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                inFlight.decrementAndGet();
+                memoryPermits.release(memory);
+                exportPermits.release();
+            }
+        }
+    }
+
+    public ExportAdmission() {
+        this(Integer.getInteger("rocrate.export.maxConcurrent", Runtime.getRuntime().availableProcessors()),
+                Long.getLong("rocrate.export.memoryBudgetMb", Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024))
+                        * 1024 * 1024,
+                Integer.getInteger("rocrate.export.maxQueued", 64),
+                Long.getLong("rocrate.export.queueTimeoutMs", 60000L));
+    }
+
+    public ExportAdmission(final int maxConcurrentExports, final long memoryBudgetBytes, final int maxQueuedExports,
+            final long queueTimeoutMillis) {
+        this.maxConcurrentExports = Math.max(1, maxConcurrentExports);
+        this.memoryBudgetBytes = Math.max(BYTES_PER_PERMIT, memoryBudgetBytes);
+        this.maxQueuedExports = Math.max(0, maxQueuedExports);
+        this.queueTimeoutMillis = Math.max(0, queueTimeoutMillis);
+        this.exportPermits = new Semaphore(this.maxConcurrentExports, true);
+        this.memoryPermitCount = (int) Math.min(Integer.MAX_VALUE, this.memoryBudgetBytes / BYTES_PER_PERMIT);
+        this.memoryPermits = new Semaphore(this.memoryPermitCount, true);
+    }
+
+    public static ExportAdmission getShared() {
+        /*
+         * The admission of all exporters of the node, with the default limits.
+         */
+        return Shared.INSTANCE;
+    }
+
+    public static int getFileCount(final JsonObject datasetJson) {
+        final JsonObject datasetVersion = datasetJson.getJsonObject("datasetVersion");
+        if (datasetVersion == null || !(datasetVersion.get("files") instanceof JsonArray)) {
+            return 0;
+        }
+        return datasetVersion.getJsonArray("files").size();
+    }
+
+    public static long getJsonBytes(final JsonValue json) {
+        /*
+         * The size of json written without whitespace, counting a byte per
+         * character of its strings and numbers. The value is walked rather than
+         * written again, so it is cheap enough to measure every export before it
+         * is admitted; escapes and multi-byte characters are not counted.
+         */
+        switch (json.getValueType()) {
+        case OBJECT:
+            final JsonObject object = json.asJsonObject();
+            long objectBytes = Math.max(2, object.size() * 4 + 1);
+            for (Map.Entry<String, JsonValue> member : object.entrySet()) {
+                objectBytes += member.getKey().length() + getJsonBytes(member.getValue());
+            }
+            return objectBytes;
+        case ARRAY:
+            final JsonArray array = json.asJsonArray();
+            long arrayBytes = Math.max(2, array.size() + 1);
+            for (JsonValue value : array) {
+                arrayBytes += getJsonBytes(value);
+            }
+            return arrayBytes;
+        case STRING:
+            return ((JsonString) json).getString().length() + 2;
+        default:
+            return json.toString().length();
+        }
+    }
+
+    public static long estimateBytes(final int fileCount, final long datasetJsonBytes) {
+        /*
+         * Estimated heap needed to export a dataset, from its file count and the
+         * size of its dataset JSON (see getJsonBytes).
+         */
+        return Math.max(BYTES_PER_DATASET + fileCount * BYTES_PER_FILE, 4 * datasetJsonBytes);
+    }
+
+    public Permit acquire(final long estimatedBytes) throws ExportException {
+        /*
+         * Waits until the export can start. An export estimated to need more than
+         * the whole budget takes the whole budget, so it runs on its own rather
+         * than never.
+         */
+        final int memory = (int) Math.min(memoryPermitCount,
+                Math.max(1, (estimatedBytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT));
+
+        final long start = System.nanoTime();
+        try {
+            // a timed tryAcquire, unlike tryAcquire(), does not jump the queue
+            if (exportPermits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                if (memoryPermits.tryAcquire(memory, 0, TimeUnit.NANOSECONDS)) {
+                    admitted(0);
+                    return new Permit(memory);
+                }
+                exportPermits.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExportException("Interrupted while waiting to export the RO-Crate.", e);
+        }
+
+        final int queueDepth = queued.incrementAndGet();
+        try {
+            if (queueDepth > maxQueuedExports) {
+                rejected.incrementAndGet();
+                throw new ExportException("Too many RO-Crate exports waiting (" + (queueDepth - 1) + "), try again later.");
+            }
+            maxQueued.accumulateAndGet(queueDepth, Math::max);
+            final long deadline = start + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+            if (!exportPermits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                rejected.incrementAndGet();
+                throw new ExportException("Timed out after " + queueTimeoutMillis + " ms waiting for one of the "
+                        + maxConcurrentExports + " RO-Crate export slots.");
+            }
+            if (!memoryPermits.tryAcquire(memory, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                exportPermits.release();
+                rejected.incrementAndGet();
+                throw new ExportException("Timed out after " + queueTimeoutMillis + " ms waiting for "
+                        + estimatedBytes / (1024 * 1024) + " MB of the RO-Crate export memory budget.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.incrementAndGet();
+            throw new ExportException("Interrupted while waiting to export the RO-Crate.", e);
+        } finally {
+            queued.decrementAndGet();
+        }
+        admitted(System.nanoTime() - start);
+        return new Permit(memory);
+    }
+
+    void admitted(final long waitNanos) {
+        inFlight.incrementAndGet();
+        admitted.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    public int getMaxConcurrentExports() {
+        return maxConcurrentExports;
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueued.get();
+    }
+
+    public int getInFlightExports() {
+        return inFlight.get();
+    }
+
+    public long getAdmittedExports() {
+        return admitted.get();
+    }
+
+    public long getRejectedExports() {
+        return rejected.get();
+    }
+
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "inFlight=" + getInFlightExports() + ", queued=" + getQueueDepth() + ", maxQueued="
+                + getMaxQueueDepth() + ", admitted=" + getAdmittedExports() + ", rejected=" + getRejectedExports()
+                + ", totalWaitMs=" + getTotalWaitMillis() + ", maxWaitMs=" + getMaxWaitMillis();
+    }
+}
@@ -0,0 +1,159 @@
+package be.libis.rdm.export.ROCrate;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the stages of an export. They are disabled
+ * by default, also in the default and profile settings of the JDK, so a
+ * recording has to enable them by name, e.g. with a .jfc file that sets
+ * be.libis.rdm.export.Export#enabled=true or Recording.enable(...); a
+ * disabled event costs a flag check. Fields are only filled in when the
+ * event is going to be recorded. Stack traces are off, so the events are
+ * cheap enough for continuous recording once enabled.
+ */
+public final class ExportEvents {
+
+    static final String CATEGORY = "RO-Crate Export";
+
+    private ExportEvents() {
+    }
+
+    @Name("be.libis.rdm.export.Export")
+    @Label("RO-Crate Export")
+    @Description("An export of a dataset, from the dataset JSON to the written crate")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Enabled(false)
+    public static class Export extends Event {
+        @Label("Format")
+        public String formatName;
+
+        @Label("Dataset")
+        public String datasetIdentifier;
+
+        @Label("Dataset JSON Size")
+        @Description("Estimated bytes of the dataset JSON, as measured for admitting the export")
+        @DataAmount
+        public long datasetJsonBytes;
+
+        @Label("Files")
+        public int fileCount;
+
+        @Label("Profiles")
+        public int profileCount;
+    }
+
+    @Name("be.libis.rdm.export.CsvLoad")
+    @Label("Mapping CSV Load")
+    @Description("Loading the mapping plan of a csv, from its snapshot or from the csv")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Enabled(false)
+    public static class CsvLoad extends Event {
+        @Label("CSV Path")
+        public String csvPath;
+
+        @Label("From Snapshot")
+        public boolean fromSnapshot;
+
+        @Label("CSV Size")
+        @DataAmount
+        public long csvBytes;
+
+        @Label("Entity Types")
+        public int entityTypeCount;
+
+        @Label("Rows")
+        public int rowCount;
+    }
+
+    @Name("be.libis.rdm.export.DatasetParse")
+    @Label("Dataset Parse")
+    @Description("The single pass over the dataset JSON that keeps the referenced parts and collects the files")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Enabled(false)
+    public static class DatasetParse extends Event {
+        @Label("Files")
+        public int fileCount;
+
+        @Label("Referenced Paths")
+        public int referencedPathCount;
+
+        @Label("Referenced JSON Size")
+        @Description("Characters of the referenced parts of the dataset JSON")
+        @DataAmount
+        public long referencedJsonLength;
+    }
+
+    @Name("be.libis.rdm.export.EntityResolution")
+    @Label("Entity Resolution")
+    @Description("Mapping the rows of one entity type of the csv; referred entity types are nested events")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Enabled(false)
+    public static class EntityResolution extends Event {
+        @Label("Entity Type")
+        public String entityName;
+
+        @Label("Root")
+        public boolean root;
+
+        @Label("Ids")
+        @Description("Ids of the entities of this type that were referred to")
+        public int idCount;
+
+        @Label("Entities In Graph")
+        public int graphEntityCount;
+    }
+
+    @Name("be.libis.rdm.export.DataEntities")
+    @Label("Data Entities")
+    @Description("Building the file and folder entities and planning the detached documents")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Enabled(false)
+    public static class DataEntities extends Event {
+        @Label("Files")
+        public int fileCount;
+
+        @Label("Data Entities")
+        public int dataEntityCount;
+
+        @Label("Detached Documents")
+        public int detachedDocumentCount;
+
+        @Label("Parallel")
+        public boolean parallel;
+    }
+
+    @Name("be.libis.rdm.export.Serialization")
+    @Label("Crate Serialization")
+    @Description("Writing a crate as UTF-8 JSON")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Enabled(false)
+    public static class Serialization extends Event {
+        @Label("Entities")
+        public int entityCount;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Chunks")
+        @Description("Chunks of the @graph serialized in parallel, 0 when written on one thread")
+        public int chunkCount;
+
+        @Label("Fingerprint")
+        @Description("SHA-256 of the written crate, in hex")
+        public String fingerprint;
+    }
+}
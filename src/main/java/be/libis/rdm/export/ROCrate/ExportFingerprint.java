@@ -0,0 +1,60 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The fingerprint of an export, over everything the exporter wrote for it:
+ * ro-crate-metadata.json, the detached metadata documents it wrote to the
+ * detached document directory and the data files of a ZIP package. Each of
+ * them adds its SHA-256 under its path. An export that wrote only
+ * ro-crate-metadata.json has the SHA-256 of that document as its fingerprint.
+ * Otherwise the fingerprint is the SHA-256 of the lines "<sha-256>  <path>"
+ * of all of them, sorted by path, as sha256sum prints them, so it can be
+ * checked against the written files with standard tools.
+ *
+ * Documents passed to a DocumentSink of the caller are written by the caller,
+ * so they are not part of the fingerprint.
+ */
+public class ExportFingerprint {
+
+    // path -> SHA-256 in hex, sorted by path
+    private final TreeMap<String, String> digests = new TreeMap<String, String>();
+
+    static MessageDigest newDigest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance(ROCrateExporter.FINGERPRINT_ALGORITHM);
+    }
+
+    public synchronized void add(final String path, final String digest) {
+        digests.put(path, digest);
+    }
+
+    void add(final String path, final MessageDigest digest) {
+        /*
+         * Adds the digest of what was written to path, and resets it for the
+         * next one.
+         */
+        add(path, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    public synchronized String get() throws NoSuchAlgorithmException {
+        if (digests.size() == 1 && digests.containsKey(DetachedDataEntities.METADATA_DOCUMENT)) {
+            return digests.get(DetachedDataEntities.METADATA_DOCUMENT);
+        }
+        return HexFormat.of().formatHex(newDigest().digest(toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public synchronized String toString() {
+        // the manifest, in the format of sha256sum
+        final StringBuilder manifest = new StringBuilder();
+        for (Map.Entry<String, String> digest : digests.entrySet()) {
+            manifest.append(digest.getValue()).append("  ").append(digest.getKey()).append('\n');
+        }
+        return manifest.toString();
+    }
+}
@@ -0,0 +1,150 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonGenerator;
+
+import be.libis.rdm.export.ROCrate.builder.ROCrateEntity;
+
+/**
+ * Writes a crate with its @graph cut into contiguous chunks of entities. Each
+ * chunk is serialized to its own buffer on a pool thread, and the buffers are
+ * written out in chunk order, so the output is byte for byte the same as
+ * writing the crate with one generator. At most twice the parallelism of the
+ * pool chunks are serialized ahead of the one being written out, which bounds
+ * the memory used for buffers.
+ */
+class GraphChunkWriter {
+
+    static final int DEFAULT_CHUNK_SIZE = Integer.getInteger("rocrate.export.serializationChunkSize", 2048);
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final BufferPool bufferPool;
+    private int chunkCount = 0;
+
+    GraphChunkWriter(final ForkJoinPool pool, final int chunkSize, final BufferPool bufferPool) {
+        this.pool = pool;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.bufferPool = bufferPool;
+    }
+
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    boolean canWrite(final JsonObject roCrateJsonLd) {
+        /*
+         * Chunks are worth it for a @graph of more than one chunk. The graph has
+         * to be the last member, so that everything after it is "]}".
+         */
+        if (pool == null || !roCrateJsonLd.containsKey("@graph")
+                || roCrateJsonLd.get("@graph").getValueType() != JsonValue.ValueType.ARRAY
+                || roCrateJsonLd.getJsonArray("@graph").size() <= chunkSize) {
+            return false;
+        }
+        String lastKey = null;
+        for (String key : roCrateJsonLd.keySet()) {
+            lastKey = key;
+        }
+        return "@graph".equals(lastKey);
+    }
+
+    // A chunk's bytes, written out without copying them.
+    static class ChunkBuffer extends ByteArrayOutputStream {
+        ChunkBuffer() {
+            super(64 * 1024);
+        }
+
+        void writeArrayElementsTo(final PooledUtf8Writer writer) throws IOException {
+            // without the [ and ] of the array the chunk was written as
+            writer.writeEncoded(buf, 1, count - 2);
+        }
+    }
+
+    ChunkBuffer serializeChunk(final JsonArray graph, final int from, final int to) throws IOException {
+        final ChunkBuffer chunk = new ChunkBuffer();
+        final PooledUtf8Writer writer = new PooledUtf8Writer(chunk, bufferPool);
+        try {
+            final JsonGenerator generator = ROCrateExporter.GENERATOR_FACTORY.createGenerator(writer);
+            generator.writeStartArray();
+            for (int i = from; i < to; i++) {
+                generator.write(graph.get(i));
+            }
+            generator.writeEnd();
+            generator.close();
+        } finally {
+            writer.close();
+        }
+        return chunk;
+    }
+
+    void write(final JsonObject roCrateJsonLd, final PooledUtf8Writer writer) throws Exception {
+        /*
+         * Writes the members before the graph as the generator would, by
+         * serializing the crate with an empty graph and leaving out its closing
+         * "]}", then the chunks with a comma between them, then "]}".
+         */
+        final JsonArray graph = roCrateJsonLd.getJsonArray("@graph");
+        final JsonObjectBuilder withoutGraph = ROCrateEntity.BUILDER_FACTORY.createObjectBuilder();
+        for (Map.Entry<String, JsonValue> member : roCrateJsonLd.entrySet()) {
+            if (member.getKey().equals("@graph")) {
+                withoutGraph.add("@graph", JsonValue.EMPTY_JSON_ARRAY);
+            } else {
+                withoutGraph.add(member.getKey(), member.getValue());
+            }
+        }
+        final StringWriter head = new StringWriter();
+        final JsonGenerator generator = ROCrateExporter.GENERATOR_FACTORY.createGenerator(head);
+        generator.write(withoutGraph.build());
+        generator.close();
+        writer.write(head.toString(), 0, head.getBuffer().length() - 2);
+
+        final int maxAhead = 2 * pool.getParallelism();
+        final Deque<Future<ChunkBuffer>> chunks = new ArrayDeque<Future<ChunkBuffer>>();
+        int next = 0;
+        boolean first = true;
+        try {
+            while (next < graph.size() || !chunks.isEmpty()) {
+                while (next < graph.size() && chunks.size() < maxAhead) {
+                    final int from = next;
+                    final int to = Math.min(graph.size(), from + chunkSize);
+                    chunks.add(pool.submit(() -> serializeChunk(graph, from, to)));
+                    next = to;
+                }
+                final ChunkBuffer chunk;
+                try {
+                    chunk = chunks.removeFirst().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                if (!first) {
+                    writer.write(',');
+                }
+                chunk.writeArrayElementsTo(writer);
+                chunkCount++;
+                first = false;
+            }
+        } finally {
+            for (Future<ChunkBuffer> chunk : chunks) {
+                chunk.cancel(true);
+            }
+        }
+        writer.write("]}");
+    }
+}
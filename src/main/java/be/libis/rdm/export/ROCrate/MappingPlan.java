@@ -0,0 +1,312 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.spi.cache.CacheProvider;
+
+/**
+ * The mappings of a csv, prepared for exporting: the rows by entity, the paths
+ * of the dataset JSON they read and their compiled JsonPaths. A plan is stored
+ * as a binary snapshot next to the csv, or in the directory set with
+ * rocrate.export.snapshotDirectory, and reloaded from there without reading the
+ * csv as long as the csv keeps its size and modification time and the exporter
+ * is the same build.
+ */
+public class MappingPlan {
+
+    static final int SNAPSHOT_MAGIC = 0x524f4350; // "ROCP"
+    static final String SNAPSHOT_SUFFIX = ".snapshot";
+    // The classes that read the csv and make and store the plan: a snapshot
+    // written by a build where any of them differs is not used.
+    static final List<Class<?>> SNAPSHOT_CLASSES = List.of(MappingPlan.class, CSV.class, DatasetJsonScanner.class);
+
+    private static final class CodeVersion {
+        static final String HASH = getCodeVersion();
+    }
+
+    private final CSV csv;
+    private final Set<List<String>> referencedPaths;
+    private final Set<String> jsonPaths;
+    // the state of the csv file the plan was made from, to notice edits cheaply
+    private final FileTime csvLastModified;
+    private final long csvSize;
+    private final boolean fromSnapshot;
+
+    MappingPlan(final CSV csv, final Set<List<String>> referencedPaths, final FileTime csvLastModified,
+            final long csvSize, final boolean fromSnapshot) throws Exception {
+        this.csv = csv;
+        this.referencedPaths = Collections.unmodifiableSet(referencedPaths);
+        this.jsonPaths = Collections.unmodifiableSet(getJsonPaths(csv));
+        this.csvLastModified = csvLastModified;
+        this.csvSize = csvSize;
+        this.fromSnapshot = fromSnapshot;
+    }
+
+    public MappingPlan(final CSV csv) throws Exception {
+        /*
+         * A plan for a csv that was read elsewhere; it is not stored.
+         */
+        this(csv, DatasetJsonScanner.getReferencedPaths(csv), null, -1, false);
+    }
+
+    public CSV getCsv() {
+        return csv;
+    }
+
+    public Set<List<String>> getReferencedPaths() {
+        return referencedPaths;
+    }
+
+    public Set<String> getJsonPathStrings() {
+        return jsonPaths;
+    }
+
+    public boolean isFromSnapshot() {
+        return fromSnapshot;
+    }
+
+    static Set<String> getJsonPaths(final CSV csv) throws Exception {
+        /*
+         * The JsonPaths the exporter reads the mappings with.
+         */
+        final Set<String> paths = new LinkedHashSet<String>();
+        paths.add("$");
+        for (String entityName : csv.getEntityNames()) {
+            for (Map<String, String> row : csv.getRowsByEntity(entityName)) {
+                if (row.get("source") != null && row.get("sourceField") != null) {
+                    paths.add(ROCrateExporter.getJsonPath(row.get("source"), row.get("sourceField")));
+                }
+            }
+        }
+        return paths;
+    }
+
+    public void warmUp() {
+        /*
+         * Compiles the JsonPaths into the JsonPath cache, which JsonPath.read looks
+         * them up in, so the first export does not pay for compiling them.
+         */
+        for (String path : jsonPaths) {
+            if (CacheProvider.getCache().get(path) == null) {
+                CacheProvider.getCache().put(path, JsonPath.compile(path));
+            }
+        }
+    }
+
+    boolean isUpToDate(final Path csvPath) {
+        try {
+            return csvSize == Files.size(csvPath) && csvLastModified != null
+                    && csvLastModified.equals(Files.getLastModifiedTime(csvPath));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static String getCodeVersion() {
+        /*
+         * SHA-256 of the class files of SNAPSHOT_CLASSES, read once. If a class
+         * file cannot be read, every start gets its own version, so snapshots
+         * are written but never trusted.
+         */
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Class<?> snapshotClass : SNAPSHOT_CLASSES) {
+                try (InputStream in = snapshotClass.getResourceAsStream(snapshotClass.getSimpleName() + ".class")) {
+                    if (in == null) {
+                        throw new IOException("No class file for " + snapshotClass.getName());
+                    }
+                    digest.update(in.readAllBytes());
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (Exception e) {
+            return "unknown-" + System.nanoTime();
+        }
+    }
+
+    public static Path getSnapshotPath(final String csvPath) {
+        /*
+         * Next to the csv, or in the directory of rocrate.export.snapshotDirectory
+         * under the csv's file name and a hash of its absolute path, so csvs
+         * with the same name in different folders get their own snapshot.
+         */
+        final String snapshotDirectory = System.getProperty("rocrate.export.snapshotDirectory");
+        if (snapshotDirectory == null || snapshotDirectory.isBlank()) {
+            return Path.of(csvPath + SNAPSHOT_SUFFIX);
+        }
+        final Path path = Path.of(csvPath).toAbsolutePath().normalize();
+        String pathHash;
+        try {
+            pathHash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(path.toString().getBytes(StandardCharsets.UTF_8)), 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            pathHash = Integer.toHexString(path.hashCode());
+        }
+        return Path.of(snapshotDirectory).resolve(path.getFileName() + "-" + pathHash + SNAPSHOT_SUFFIX);
+    }
+
+    public static MappingPlan load(final String csvPath) throws Exception {
+        /*
+         * Loads the plan of the csv from its snapshot if the snapshot was made by
+         * this build from a csv of the same size and modification time; the csv
+         * itself is not read then. Otherwise the csv is read and a new snapshot
+         * is written; failing to write it (e.g. a read-only folder) is not an
+         * error.
+         */
+        final ExportEvents.CsvLoad event = new ExportEvents.CsvLoad();
+        event.begin();
+        final Path path = Path.of(csvPath);
+        final FileTime lastModified = Files.getLastModifiedTime(path);
+        final long csvSize = Files.size(path);
+        final Path snapshotPath = getSnapshotPath(csvPath);
+
+        MappingPlan plan = null;
+        if (Files.isRegularFile(snapshotPath)) {
+            try (InputStream in = Files.newInputStream(snapshotPath)) {
+                plan = readSnapshot(in, lastModified, csvSize);
+            } catch (IOException e) {
+                plan = null;
+            }
+        }
+        if (plan == null) {
+            final CSV csv = new CSV(csvPath);
+            plan = new MappingPlan(csv, DatasetJsonScanner.getReferencedPaths(csv), lastModified, csvSize, false);
+            Path temporaryPath = null;
+            try {
+                Files.createDirectories(snapshotPath.toAbsolutePath().getParent());
+                temporaryPath = Files.createTempFile(snapshotPath.toAbsolutePath().getParent(),
+                        snapshotPath.getFileName().toString(), ".tmp");
+                try (OutputStream out = Files.newOutputStream(temporaryPath)) {
+                    plan.writeSnapshot(out);
+                }
+                Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // the plan is still usable, it is only not stored for the next start
+            } finally {
+                // left over when writing or moving it failed
+                deleteQuietly(temporaryPath);
+            }
+        }
+        plan.warmUp();
+        if (event.shouldCommit()) {
+            event.csvPath = csvPath;
+            event.fromSnapshot = plan.fromSnapshot;
+            event.csvBytes = csvSize;
+            event.entityTypeCount = plan.csv.getEntityNames().size();
+            for (List<Map<String, String>> rows : plan.csv.getAllRowsByEntity().values()) {
+                event.rowCount += rows.size();
+            }
+            event.commit();
+        }
+        return plan;
+    }
+
+    static void deleteQuietly(final Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // nothing else to do with it
+        }
+    }
+
+    void writeSnapshot(final OutputStream outputStream) throws IOException {
+        /*
+         * Snapshot layout: magic, code version, the modification time (in
+         * milliseconds) and size of the csv, the rows by entity and the
+         * referenced paths, each list preceded by its size.
+         */
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeUTF(CodeVersion.HASH);
+        out.writeLong(csvLastModified.toMillis());
+        out.writeLong(csvSize);
+        final Map<String, ArrayList<Map<String, String>>> rowsByEntity = csv.getAllRowsByEntity();
+        out.writeInt(rowsByEntity.size());
+        for (Map.Entry<String, ArrayList<Map<String, String>>> entity : rowsByEntity.entrySet()) {
+            out.writeUTF(entity.getKey());
+            out.writeInt(entity.getValue().size());
+            for (Map<String, String> row : entity.getValue()) {
+                out.writeInt(row.size());
+                for (Map.Entry<String, String> column : row.entrySet()) {
+                    out.writeUTF(column.getKey());
+                    out.writeUTF(column.getValue());
+                }
+            }
+        }
+        out.writeInt(referencedPaths.size());
+        for (List<String> referencedPath : referencedPaths) {
+            out.writeInt(referencedPath.size());
+            for (String key : referencedPath) {
+                out.writeUTF(key);
+            }
+        }
+        out.flush();
+    }
+
+    static MappingPlan readSnapshot(final InputStream inputStream, final FileTime csvLastModified,
+            final long csvSize) throws Exception {
+        /*
+         * Reads a snapshot written by writeSnapshot. Returns null if it was made
+         * from a different state of the csv or by another build of the exporter.
+         */
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        if (in.readInt() != SNAPSHOT_MAGIC || !CodeVersion.HASH.equals(in.readUTF())
+                || in.readLong() != csvLastModified.toMillis() || in.readLong() != csvSize) {
+            return null;
+        }
+        final LinkedHashMap<String, ArrayList<Map<String, String>>> rowsByEntity = new LinkedHashMap<String, ArrayList<Map<String, String>>>();
+        final int entityCount = in.readInt();
+        for (int i = 0; i < entityCount; i++) {
+            final String entityName = in.readUTF();
+            final int rowCount = in.readInt();
+            final ArrayList<Map<String, String>> rows = new ArrayList<Map<String, String>>(rowCount);
+            for (int j = 0; j < rowCount; j++) {
+                final int columnCount = in.readInt();
+                // in csv column order, like the rows read from the csv
+                final Map<String, String> row = new LinkedHashMap<String, String>();
+                for (int k = 0; k < columnCount; k++) {
+                    row.put(in.readUTF(), in.readUTF());
+                }
+                rows.add(row);
+            }
+            rowsByEntity.put(entityName, rows);
+        }
+        final Set<List<String>> referencedPaths = new LinkedHashSet<List<String>>();
+        final int pathCount = in.readInt();
+        for (int i = 0; i < pathCount; i++) {
+            final int keyCount = in.readInt();
+            final List<String> referencedPath = new ArrayList<String>(keyCount);
+            for (int j = 0; j < keyCount; j++) {
+                referencedPath.add(in.readUTF());
+            }
+            referencedPaths.add(List.copyOf(referencedPath));
+        }
+        return new MappingPlan(new CSV(rowsByEntity), referencedPaths, csvLastModified, csvSize, true);
+    }
+}
@@ -0,0 +1,181 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+
+import be.libis.rdm.export.ROCrate.builder.ROCrateGraphReport;
+
+/**
+ * Records what each row of a mapping csv costs during an export: how often it
+ * was evaluated, the time spent in its JsonPath lookups, the number of values it
+ * produced and the deepest refersTo: nesting it was evaluated at. Rows that are
+ * never evaluated or never produce a value show up with zeros. The report also
+ * lists the dangling references and orphan entities of the built crate.
+ *
+ * A profile is not thread-safe; use one per export.
+ */
+public class MappingProfile {
+
+    // Passed when no profile is asked for, so the exporter needs no null checks.
+    // It is shared by all exports on all threads, so it records nothing: every
+    // method that would change a profile does nothing.
+    static final MappingProfile DISABLED = new MappingProfile() {
+        @Override
+        long startLookup() {
+            return 0;
+        }
+
+        @Override
+        void endLookup(final Map<String, String> row, final long start) {
+        }
+
+        @Override
+        void evaluated(final Map<String, String> row, final int valuesProduced) {
+        }
+
+        @Override
+        void enterReference() {
+        }
+
+        @Override
+        void exitReference() {
+        }
+
+        @Override
+        void addTotalNanos(final long nanos) {
+        }
+
+        @Override
+        void setGraphReport(final ROCrateGraphReport report) {
+        }
+    };
+
+    static class RowStats {
+        final String entityName;
+        final Map<String, String> row;
+        long evaluations = 0;
+        long jsonPathLookups = 0;
+        long jsonPathNanos = 0;
+        long values = 0;
+        int maxDepth = 0;
+
+        RowStats(final String entityName, final Map<String, String> row) {
+            this.entityName = entityName;
+            this.row = row;
+        }
+    }
+
+    private final boolean enabled;
+    // keyed by the row maps of the csv themselves: rows with the same content
+    // are still different mappings
+    private final IdentityHashMap<Map<String, String>, RowStats> statsByRow = new IdentityHashMap<Map<String, String>, RowStats>();
+    private final List<RowStats> stats = new ArrayList<RowStats>();
+    private int depth = 0;
+    private long totalNanos = 0;
+    private ROCrateGraphReport graphReport = null;
+
+    private MappingProfile() {
+        this.enabled = false;
+    }
+
+    public MappingProfile(final CSV csv) throws Exception {
+        this.enabled = true;
+        for (String entityName : csv.getEntityNames()) {
+            for (Map<String, String> row : csv.getRowsByEntity(entityName)) {
+                RowStats rowStats = new RowStats(entityName, row);
+                statsByRow.put(row, rowStats);
+                stats.add(rowStats);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    RowStats getStats(final Map<String, String> row) {
+        return statsByRow.get(row);
+    }
+
+    long startLookup() {
+        return System.nanoTime();
+    }
+
+    void endLookup(final Map<String, String> row, final long start) {
+        RowStats rowStats = getStats(row);
+        if (rowStats != null) {
+            rowStats.jsonPathLookups++;
+            rowStats.jsonPathNanos += System.nanoTime() - start;
+        }
+    }
+
+    void evaluated(final Map<String, String> row, final int valuesProduced) {
+        RowStats rowStats = getStats(row);
+        if (rowStats != null) {
+            rowStats.evaluations++;
+            rowStats.values += Math.max(0, valuesProduced);
+            rowStats.maxDepth = Math.max(rowStats.maxDepth, depth);
+        }
+    }
+
+    void enterReference() {
+        depth++;
+    }
+
+    void exitReference() {
+        depth--;
+    }
+
+    void addTotalNanos(final long nanos) {
+        totalNanos += nanos;
+    }
+
+    void setGraphReport(final ROCrateGraphReport report) {
+        graphReport = report;
+    }
+
+    public JsonObject toJson() {
+        /*
+         * The report, one object per csv row in csv order.
+         */
+        final JsonArrayBuilder rows = Json.createArrayBuilder();
+        for (RowStats rowStats : stats) {
+            rows.add(Json.createObjectBuilder()
+                    .add("entityName", rowStats.entityName)
+                    .add("targetPropertyName", rowStats.row.getOrDefault("targetPropertyName", ""))
+                    .add("source", rowStats.row.getOrDefault("source", ""))
+                    .add("sourceField", rowStats.row.getOrDefault("sourceField", ""))
+                    .add("value", rowStats.row.getOrDefault("value", ""))
+                    .add("evaluations", rowStats.evaluations)
+                    .add("jsonPathLookups", rowStats.jsonPathLookups)
+                    .add("jsonPathMillis", rowStats.jsonPathNanos / 1e6)
+                    .add("values", rowStats.values)
+                    .add("maxRefersToDepth", rowStats.maxDepth));
+        }
+        final JsonArrayBuilder danglingReferences = Json.createArrayBuilder();
+        final JsonArrayBuilder orphanIds = Json.createArrayBuilder();
+        if (graphReport != null) {
+            for (ROCrateGraphReport.DanglingReference reference : graphReport.getDanglingReferences()) {
+                danglingReferences.add(Json.createObjectBuilder()
+                        .add("entityId", reference.entityId)
+                        .add("propertyName", reference.propertyName)
+                        .add("targetId", reference.targetId));
+            }
+            for (String orphanId : graphReport.getOrphanIds()) {
+                orphanIds.add(orphanId);
+            }
+        }
+        return Json.createObjectBuilder()
+                .add("totalMillis", totalNanos / 1e6)
+                .add("rows", rows)
+                .add("danglingReferences", danglingReferences)
+                .add("orphanIds", orphanIds)
+                .build();
+    }
+}
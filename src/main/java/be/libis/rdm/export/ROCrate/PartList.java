@@ -0,0 +1,73 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.RandomAccess;
+
+/**
+ * The hasPart list of a folder. It is a List, so it is handled like any other
+ * list of property values, but it also counts its parts: folders with many
+ * files would otherwise spend most of their time in contains(). Every change to
+ * the list, including through its iterators, sub-lists and removeIf, goes
+ * through add(int, E), set or remove(int), which keep the counts up to date.
+ */
+class PartList extends AbstractList<String> implements RandomAccess {
+
+    private final ArrayList<String> parts = new ArrayList<String>();
+    // part -> the number of times it is in the list
+    private final HashMap<String, Integer> counts = new HashMap<String, Integer>();
+
+    private void counted(final String part) {
+        counts.merge(part, 1, Integer::sum);
+    }
+
+    private void uncounted(final String part) {
+        counts.computeIfPresent(part, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    @Override
+    public String get(final int index) {
+        return parts.get(index);
+    }
+
+    @Override
+    public int size() {
+        return parts.size();
+    }
+
+    @Override
+    public boolean contains(final Object part) {
+        return counts.containsKey(part);
+    }
+
+    @Override
+    public void add(final int index, final String part) {
+        parts.add(index, part);
+        counted(part);
+        modCount++;
+    }
+
+    @Override
+    public String set(final int index, final String part) {
+        final String previous = parts.set(index, part);
+        uncounted(previous);
+        counted(part);
+        return previous;
+    }
+
+    @Override
+    public String remove(final int index) {
+        final String removed = parts.remove(index);
+        uncounted(removed);
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        parts.clear();
+        counts.clear();
+        modCount++;
+    }
+}
@@ -0,0 +1,157 @@
+package be.libis.rdm.export.ROCrate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes characters as UTF-8 into a buffer from a BufferPool and writes the
+ * buffer to an output stream each time it is full. Malformed characters (a
+ * lone surrogate) become '?', as with String.getBytes. Closing the writer
+ * gives the buffer back to the pool; the output stream is flushed but stays
+ * open.
+ */
+class PooledUtf8Writer extends Writer {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream outputStream;
+    private final BufferPool bufferPool;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer buffer;
+    private WritableByteChannel channel = null;
+    // a high surrogate at the end of a write, waiting for its low surrogate
+    private final CharBuffer pending = CharBuffer.allocate(2);
+    private long byteCount = 0;
+
+    PooledUtf8Writer(final OutputStream outputStream, final BufferPool bufferPool) {
+        this.outputStream = outputStream;
+        this.bufferPool = bufferPool;
+        this.buffer = bufferPool.acquire(BUFFER_SIZE);
+    }
+
+    long getByteCount() {
+        return byteCount;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Writer closed");
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        byteCount += buffer.remaining();
+        if (buffer.hasArray()) {
+            outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            if (channel == null) {
+                channel = Channels.newChannel(outputStream);
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+
+    private void encode(final CharBuffer chars, final boolean endOfInput) throws IOException {
+        while (true) {
+            final CoderResult result = encoder.encode(chars, buffer, endOfInput);
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void write(final CharBuffer chars) throws IOException {
+        ensureOpen();
+        while (pending.position() > 0 && chars.hasRemaining()) {
+            pending.put(chars.get());
+            pending.flip();
+            encode(pending, false);
+            pending.compact();
+        }
+        encode(chars, false);
+        if (chars.hasRemaining()) {
+            // only a high surrogate can be left over
+            pending.put(chars.get());
+        }
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        write(CharBuffer.wrap(cbuf, off, len));
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+        write(CharBuffer.wrap(str, off, off + len));
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        write(CharBuffer.wrap(new char[] { (char) c }));
+    }
+
+    void writeEncoded(final byte[] bytes, final int off, final int len) throws IOException {
+        /*
+         * Writes bytes that are already UTF-8, after the characters written so
+         * far. Large writes go straight to the output stream.
+         */
+        ensureOpen();
+        if (pending.position() > 0) {
+            throw new IOException("Unpaired high surrogate before encoded bytes");
+        }
+        if (len <= buffer.remaining()) {
+            buffer.put(bytes, off, len);
+            return;
+        }
+        drain();
+        if (len <= buffer.remaining()) {
+            buffer.put(bytes, off, len);
+        } else {
+            byteCount += len;
+            outputStream.write(bytes, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            pending.flip();
+            encode(pending, true);
+            while (encoder.flush(buffer).isOverflow()) {
+                drain();
+            }
+            drain();
+            outputStream.flush();
+        } finally {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -5,20 +5,34 @@ import io.gdcc.spi.export.ExportDataProvider;
 import io.gdcc.spi.export.ExportException;
 import io.gdcc.spi.export.Exporter;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import jakarta.json.Json;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
 import jakarta.json.JsonObject;
-import jakarta.json.JsonArrayBuilder;
-import jakarta.json.JsonObjectBuilder;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonGeneratorFactory;
+import jakarta.json.stream.JsonParser;
 import jakarta.ws.rs.core.MediaType;
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 
 import be.libis.rdm.export.ROCrate.builder.ROCrateBuilder;
 import be.libis.rdm.export.ROCrate.builder.ROCrateEntity;
+import be.libis.rdm.export.ROCrate.builder.ROCrateGraphReport;
 
 /**
  * An external RO-Crate exporter for Dataverse, with customizable mappings to
@@ -31,8 +45,53 @@ import be.libis.rdm.export.ROCrate.builder.ROCrateEntity;
 // interface that extends it.
 public class ROCrateExporter implements Exporter {
 
+    // The digest used for the fingerprints of exported crates; see ExportFingerprint.
+    static final String FINGERPRINT_ALGORITHM = "SHA-256";
+    static final JsonGeneratorFactory GENERATOR_FACTORY = ROCrateEntity.PROVIDER.createGeneratorFactory(Map.of());
+
+    // Mapping plans by csv path, kept between exports and shared by the exporters
+    // of all formats.
+    static final Map<String, MappingPlan> MAPPING_PLANS = new ConcurrentHashMap<String, MappingPlan>();
+    // One lock per csv path, held while its plan is loaded.
+    static final Map<String, ReentrantLock> MAPPING_PLAN_LOCKS = new ConcurrentHashMap<String, ReentrantLock>();
+    private static final class ParallelPool {
+        // The threads of the parallel stages, shared by all exporters and made
+        // when a parallel stage is first turned on.
+        static final ForkJoinPool INSTANCE = new ForkJoinPool(Math.max(2,
+                Integer.getInteger("rocrate.export.parallelPoolSize", Runtime.getRuntime().availableProcessors())));
+    }
+
+    // Dataverse uses one instance per format for all request threads: the
+    // settings below are volatile, and everything else an export needs is local
+    // to the export or shared by all exporters.
+
     // The default path from where the csv is to be read.
-    String csvPath = "/exporters/dataverse2ro-crate.csv";
+    volatile String csvPath = "/exporters/dataverse2ro-crate.csv";
+    // The mapping csv of each profile exported together by exportDatasets.
+    volatile Map<String, String> profileCsvPaths = new LinkedHashMap<String, String>();
+    // Limits the exports running at the same time, shared by the exporters of all
+    // formats so the limits hold for the node.
+    volatile ExportAdmission exportAdmission = ExportAdmission.getShared();
+    // Runs the exports of exportDatasetAsync, null for the shared AsyncExports,
+    // which is only made when it is first used.
+    volatile AsyncExports asyncExports = null;
+    // The buffers crates are serialized into.
+    volatile BufferPool bufferPool = BufferPool.getShared();
+    // The maximum number of data entities per metadata document, 0 for no maximum.
+    volatile int maxDataEntitiesPerDocument = 0;
+    // Where exportDataset writes detached metadata documents.
+    volatile String detachedDocumentDirectory = null;
+    // Builds the data entities of large datasets in parallel, null to build them
+    // while reading the files. The ParallelPool.
+    volatile ForkJoinPool dataEntityPool = null;
+    // Serializes the @graph of large crates in chunks in parallel, null to write
+    // it on the exporting thread. The ParallelPool.
+    volatile ForkJoinPool serializationPool = null;
+    // Build compact crates, see setCompactOutput.
+    volatile boolean compactOutput = false;
+    // Fail exports whose crate has dangling references, see setGraphValidation.
+    volatile boolean graphValidation = false;
+
     /*
      * The name of the format it creates. If this format is already provided by a
      * built-in exporter, this Exporter will override the built-in one. (Note that
@@ -72,6 +131,180 @@ public class ROCrateExporter implements Exporter {
         this.csvPath = newPath;
     }
 
+    public void warmUp() {
+        /*
+         * Loads the mapping plans of the configured csvs, from their snapshots when
+         * the csvs did not change, so the first export does not have to. Not called
+         * by the exporter itself, which loads a plan when it is first used. Csvs
+         * that cannot be read are left for exportDataset to report.
+         */
+        final List<String> paths = new ArrayList<String>();
+        paths.add(this.csvPath);
+        paths.addAll(this.profileCsvPaths.values());
+        for (String path : paths) {
+            try {
+                if (Files.isRegularFile(Path.of(path))) {
+                    getMappingPlan(path);
+                }
+            } catch (Exception e) {
+                // reported when the csv is used
+            }
+        }
+    }
+
+    MappingPlan getMappingPlan(String path) throws Exception {
+        /*
+         * Returns the mapping plan of the csv, loading it again if the csv changed
+         * since it was loaded.
+         */
+        MappingPlan plan = MAPPING_PLANS.get(path);
+        if (plan != null && plan.isUpToDate(Path.of(path))) {
+            return plan;
+        }
+        // one thread loads, the others wait for its plan instead of loading too.
+        // The lock is per csv, so other csvs are not held up by a slow read, and
+        // it is not a monitor, so waiting virtual threads are not pinned.
+        final ReentrantLock lock = MAPPING_PLAN_LOCKS.computeIfAbsent(path, k -> new ReentrantLock());
+        lock.lock();
+        try {
+            plan = MAPPING_PLANS.get(path);
+            if (plan == null || !plan.isUpToDate(Path.of(path))) {
+                plan = MappingPlan.load(path);
+                MAPPING_PLANS.put(path, plan);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return plan;
+    }
+
+    public ExportAdmission getExportAdmission() {
+        /*
+         * The limits on concurrent exports, with their queue and wait metrics.
+         */
+        return this.exportAdmission;
+    }
+
+    public void setExportAdmission(ExportAdmission newExportAdmission) {
+        this.exportAdmission = newExportAdmission;
+    }
+
+    public AsyncExports getAsyncExports() {
+        /*
+         * The background exports of exportDatasetAsync, with their counts: shared
+         * by all exporters unless setAsyncParallelism was called.
+         */
+        final AsyncExports ownAsyncExports = this.asyncExports;
+        return ownAsyncExports != null ? ownAsyncExports : AsyncExports.getShared();
+    }
+
+    public void setAsyncParallelism(int parallelism) {
+        /*
+         * Sets how many exports of exportDatasetAsync of this exporter run at the
+         * same time, with an executor of its own. Exports already submitted finish
+         * with the previous setting.
+         */
+        final AsyncExports previousAsyncExports = this.asyncExports;
+        this.asyncExports = new AsyncExports(parallelism);
+        if (previousAsyncExports != null) {
+            previousAsyncExports.shutdown();
+        }
+    }
+
+    public BufferPool getBufferPool() {
+        /*
+         * The pool of output buffers, with its reuse statistics.
+         */
+        return this.bufferPool;
+    }
+
+    public void setBufferPool(BufferPool newBufferPool) {
+        this.bufferPool = newBufferPool;
+    }
+
+    public void setMaxDataEntitiesPerDocument(int newMaxDataEntitiesPerDocument) {
+        /*
+         * Caps the number of data entities in ro-crate-metadata.json. Folders that do
+         * not fit are exported as separate metadata documents, linked from the root
+         * crate. 0 (the default) keeps all data entities in one document.
+         */
+        this.maxDataEntitiesPerDocument = newMaxDataEntitiesPerDocument;
+    }
+
+    public void setDetachedDocumentDirectory(String newDirectory) {
+        /*
+         * Sets the directory where exportDataset writes the detached metadata
+         * documents, in a sub-folder per dataset.
+         */
+        this.detachedDocumentDirectory = newDirectory;
+    }
+
+    public void setDataEntityParallelism(int parallelism) {
+        /*
+         * Builds the data entities of a dataset from its files on the parallel
+         * pool if parallelism is more than 1. 0 or 1 (the default) builds them on
+         * the exporting thread. See getParallelPool.
+         */
+        this.dataEntityPool = getParallelPool(parallelism);
+    }
+
+    public void setSerializationParallelism(int parallelism) {
+        /*
+         * Serializes the @graph of a crate on the parallel pool if parallelism is
+         * more than 1, in chunks of entities written out in order. 0 or 1 (the
+         * default) writes it on the exporting thread. The output is the same
+         * either way. See getParallelPool.
+         */
+        this.serializationPool = getParallelPool(parallelism);
+    }
+
+    static ForkJoinPool getParallelPool(int parallelism) {
+        /*
+         * The pool shared by the parallel stages of all exporters, or null for a
+         * parallelism of 0 or 1. It has a fixed number of threads,
+         * rocrate.export.parallelPoolSize (default: the number of processors),
+         * however many exporters use it, so a parallelism over 1 only turns the
+         * stage on. Its worker threads are daemon threads that end when idle.
+         */
+        return parallelism > 1 ? ParallelPool.INSTANCE : null;
+    }
+
+    public void setCompactOutput(boolean newCompactOutput) {
+        /*
+         * Writes compact crates: local contextual entities get short "#" ids and
+         * entities without an @id are left out; see ROCrateBuilder.build(boolean).
+         */
+        this.compactOutput = newCompactOutput;
+    }
+
+    boolean hasPathIds() {
+        /*
+         * Whether the data entities of the crate are identified by their paths
+         * (see addDataEntity). Formats that only hold the metadata keep the ids
+         * of the rocrate_json format.
+         */
+        return false;
+    }
+
+    public void setGraphValidation(boolean newGraphValidation) {
+        /*
+         * Validates the references of every crate when it is built, and fails
+         * the export with an ExportException listing the dangling references
+         * (references to ids that are not in the crate) if there are any.
+         * Orphan entities do not fail the export; explainDataset lists them.
+         */
+        this.graphValidation = newGraphValidation;
+    }
+
+    public void setProfileCsvPaths(Map<String, String> newProfileCsvPaths) {
+        /*
+         * Sets the mapping csv of each RO-Crate profile (profile name -> path of the
+         * csv) used by exportDatasets, for example a plain RO-Crate 1.1 and a
+         * Workflow RO-Crate variant.
+         */
+        this.profileCsvPaths = new LinkedHashMap<String, String>(newProfileCsvPaths);
+    }
+
     static String replaceQuotations(String s) {
         /*
          * Turns single quotes into double quotes for uniformity.
@@ -146,6 +379,11 @@ public class ROCrateExporter implements Exporter {
 
     static public ArrayList<String> addReferredEntityAsContextual(CSV csv, String datasetJson,
             String refersToValueString, ROCrateBuilder roCrateBuilder) throws Exception {
+        return addReferredEntityAsContextual(csv, datasetJson, refersToValueString, roCrateBuilder, MappingProfile.DISABLED);
+    }
+
+    static public ArrayList<String> addReferredEntityAsContextual(CSV csv, String datasetJson,
+            String refersToValueString, ROCrateBuilder roCrateBuilder, MappingProfile profile) throws Exception {
         /*
          * Referred entities are the contextual entities referred by another property in
          * the RO-Crate metadata.
@@ -162,7 +400,12 @@ public class ROCrateExporter implements Exporter {
             referredIds = new ArrayList<String>();
             referredIds.add(removeQuotations(refersToValue));
         } else {
-            referredIds = addContextualEntity(csv, datasetJson, refersToValue, roCrateBuilder);
+            profile.enterReference();
+            try {
+                referredIds = addContextualEntity(csv, datasetJson, refersToValue, roCrateBuilder, profile);
+            } finally {
+                profile.exitReference();
+            }
         }
         return referredIds;
     }
@@ -190,14 +433,34 @@ public class ROCrateExporter implements Exporter {
         return referredIds;
     }
 
+    static String getRootKey(final String jsonPath) {
+        /*
+         * The first key of a path made by getJsonPath ("datasetVersion" for
+         * "$.datasetVersion.metadataBlocks..."), or null for "$".
+         */
+        if (!jsonPath.startsWith("$.")) {
+            return null;
+        }
+        int end = 2;
+        while (end < jsonPath.length() && jsonPath.charAt(end) != '.' && jsonPath.charAt(end) != '[') {
+            end++;
+        }
+        return end > 2 ? jsonPath.substring(2, end) : null;
+    }
+
     static public Object readAndUnpackJsonPath(String jsonString, String jsonPath) {
         /*
-         * Read jsonpath and unpack if it consists of a single item within a list
+         * Read jsonpath and unpack if it consists of a single item within a list.
+         * Referred entities are read from the object of the entity referring to
+         * them, which does not have the first key of their path: they get the
+         * whole object ("$").
          */
-        if (!jsonString.contains("datasetVersion")) {
+        final DocumentContext document = JsonPath.parse(jsonString);
+        final String rootKey = getRootKey(jsonPath);
+        if (rootKey != null && !(document.json() instanceof Map && ((Map<?, ?>) document.json()).containsKey(rootKey))) {
             jsonPath = "$";
         }
-        Object dataObject = JsonPath.read(jsonString, jsonPath);
+        Object dataObject = document.read(jsonPath);
         while (dataObject instanceof List && ((List) dataObject).size() == 1) {
             dataObject = ((List) dataObject).get(0);
         }
@@ -206,6 +469,34 @@ public class ROCrateExporter implements Exporter {
 
     static public ArrayList<String> addRootEntity(CSV csv, String jsonString, String entityName, final ROCrateBuilder roCrateBuilder)
             throws Exception {
+        return addRootEntity(csv, jsonString, entityName, roCrateBuilder, MappingProfile.DISABLED);
+    }
+
+    static int countValues(final ROCrateEntity entity, final String propertyName) {
+        /*
+         * Number of values of the property, without adding it to the entity.
+         */
+        return entity.getProperties().get(propertyName) == null ? 0
+                : entity.getProperties().get(propertyName).values.size();
+    }
+
+    static public ArrayList<String> addRootEntity(CSV csv, String jsonString, String entityName, final ROCrateBuilder roCrateBuilder,
+            final MappingProfile profile) throws Exception {
+        final ExportEvents.EntityResolution event = new ExportEvents.EntityResolution();
+        event.begin();
+        final ArrayList<String> ids = resolveRootEntity(csv, jsonString, entityName, roCrateBuilder, profile);
+        if (event.shouldCommit()) {
+            event.entityName = entityName;
+            event.root = true;
+            event.idCount = ids.size();
+            event.graphEntityCount = roCrateBuilder.size();
+            event.commit();
+        }
+        return ids;
+    }
+
+    static ArrayList<String> resolveRootEntity(CSV csv, String jsonString, String entityName, final ROCrateBuilder roCrateBuilder,
+            final MappingProfile profile) throws Exception {
         /*
          * Adds the entities that are at the root level of the ro-crate-metadata.json
          */
@@ -222,8 +513,9 @@ public class ROCrateExporter implements Exporter {
 
             String value = row.get("value");
             String targetPropertyName = row.get("targetPropertyName");
+            final int valuesBefore = countValues(currentEntity, targetPropertyName);
             if (value.contains("refersTo:")) {
-                ArrayList<String> referredIds = addReferredEntityAsContextual(csv, jsonString, value, roCrateBuilder);
+                ArrayList<String> referredIds = addReferredEntityAsContextual(csv, jsonString, value, roCrateBuilder, profile);
                 currentEntity.putProperty(targetPropertyName, referredIds, value.substring(9));
             } else {
                 value = replaceQuotations(value);
@@ -242,7 +534,9 @@ public class ROCrateExporter implements Exporter {
                     String sourceField = row.get("sourceField");
                     String valueFrom = row.get("value");
                     String jsonPath = getJsonPath(sourcePath, sourceField);
+                    final long lookupStart = profile.startLookup();
                     Object dataObject = readAndUnpackJsonPath(jsonString, jsonPath);
+                    profile.endLookup(row, lookupStart);
                     if (dataObject instanceof LinkedHashMap
                             && ((LinkedHashMap) dataObject).keySet().contains("value")) {
                         dataObject = ((LinkedHashMap) dataObject).get("value");
@@ -305,6 +599,7 @@ public class ROCrateExporter implements Exporter {
                     }
                 }
             }
+            profile.evaluated(row, countValues(currentEntity, targetPropertyName) - valuesBefore);
         }
         if (id != null) {
             roCrateBuilder.upsertEntity(currentEntity);
@@ -313,21 +608,40 @@ public class ROCrateExporter implements Exporter {
     }
 
     static public ArrayList<String> addContextualEntity(final CSV csv, String jsonString, String entityName, ROCrateBuilder roCrateBuilder) throws Exception {
+        return addContextualEntity(csv, jsonString, entityName, roCrateBuilder, MappingProfile.DISABLED);
+    }
+
+    static public ArrayList<String> addContextualEntity(final CSV csv, String jsonString, String entityName, ROCrateBuilder roCrateBuilder,
+            final MappingProfile profile) throws Exception {
+        if (entityName.equals("Root") || entityName.equals("Metadata")) {
+            return addRootEntity(csv, jsonString, entityName, roCrateBuilder, profile);
+        }
+        final ExportEvents.EntityResolution event = new ExportEvents.EntityResolution();
+        event.begin();
+        final ArrayList<String> ids = resolveContextualEntity(csv, jsonString, entityName, roCrateBuilder, profile);
+        if (event.shouldCommit()) {
+            event.entityName = entityName;
+            event.root = false;
+            event.idCount = ids.size();
+            event.graphEntityCount = roCrateBuilder.size();
+            event.commit();
+        }
+        return ids;
+    }
+
+    static ArrayList<String> resolveContextualEntity(final CSV csv, String jsonString, String entityName, ROCrateBuilder roCrateBuilder,
+            final MappingProfile profile) throws Exception {
         /*
          * Adds remaining contextual entities.
          */
         ArrayList<String> ids = new ArrayList<>();
         ArrayList<Map<String, String>> rows = csv.getRowsByEntity(entityName);
         String id = null;
-        
-
-        if (entityName.equals("Root") || entityName.equals("Metadata")) {
-            ids = addRootEntity(csv, jsonString, entityName, roCrateBuilder);
-            return ids;
-        }
         int i = 0;
 
-        LinkedHashMap<String, ArrayList<String>> propertyNameValue = new LinkedHashMap<>();
+        // the values of each row, by the index of the row: an entity can map
+        // several rows to the same property
+        ArrayList<ArrayList<String>> rowValues = new ArrayList<>();
         String sourcePath;
         String sourceField;
         String jsonPath;
@@ -339,14 +653,15 @@ public class ROCrateExporter implements Exporter {
                 sourcePath = row.get("source");
                 sourceField = row.get("sourceField");
                 jsonPath = getJsonPath(sourcePath, sourceField);
+                final long lookupStart = profile.startLookup();
                 dataObject = readAndUnpackJsonPath(jsonString, jsonPath);
+                profile.endLookup(row, lookupStart);
             }
-            String targetPropertyName = row.get("targetPropertyName");
             ArrayList<String> targetPropertyValues = new ArrayList<String>();
             for (String value : row.get("value").split(",")) {
                 targetPropertyValues.add(value.strip());
             }
-            propertyNameValue.put(targetPropertyName, targetPropertyValues);
+            rowValues.add(targetPropertyValues);
         }
 
 
@@ -354,14 +669,16 @@ public class ROCrateExporter implements Exporter {
             LinkedHashMap mapObject = (LinkedHashMap) dataObject;
 
             ROCrateEntity currentEntity = new ROCrateEntity();
-            for (String propertyName : propertyNameValue.keySet()) {
-                for (String value : propertyNameValue.get(propertyName)) {
+            for (int r = 0; r < rows.size(); r++) {
+                final String propertyName = rows.get(r).get("targetPropertyName");
+                final int valuesBefore = countValues(currentEntity, propertyName);
+                for (String value : rowValues.get(r)) {
                     if (value.startsWith("\"")) {
                         currentEntity.get(propertyName).add(removeQuotations(value));
                     } else if (value.contains("refersTo:")) {
                         Gson gson = new Gson();
                         String dataObjectAsString = gson.toJson(dataObject);
-                        ArrayList<String> referredIds = addReferredEntityAsContextual(csv, dataObjectAsString, value, roCrateBuilder);
+                        ArrayList<String> referredIds = addReferredEntityAsContextual(csv, dataObjectAsString, value, roCrateBuilder, profile);
                         currentEntity.putProperty(propertyName, referredIds, value.substring(9));
                     } else if (mapObject.keySet().contains(value)) {                        
                         if (mapObject.get(value) instanceof String) {
@@ -392,6 +709,7 @@ public class ROCrateExporter implements Exporter {
                         break;
                     }
                 }
+                profile.evaluated(rows.get(r), countValues(currentEntity, propertyName) - valuesBefore);
             }
             if (id != null) {
                 roCrateBuilder.upsertEntity(currentEntity);
@@ -400,8 +718,10 @@ public class ROCrateExporter implements Exporter {
         } else if (dataObject instanceof String) {
 
             ROCrateEntity currentEntity = new ROCrateEntity();
-            for (String propertyName : propertyNameValue.keySet()) {
-                for (String value : propertyNameValue.get(propertyName)) {
+            for (int r = 0; r < rows.size(); r++) {
+                final String propertyName = rows.get(r).get("targetPropertyName");
+                final int valuesBefore = countValues(currentEntity, propertyName);
+                for (String value : rowValues.get(r)) {
                     if (propertyName.isBlank()) {
                         continue;
                     }
@@ -415,6 +735,7 @@ public class ROCrateExporter implements Exporter {
                     }
 
                 }
+                profile.evaluated(rows.get(r), countValues(currentEntity, propertyName) - valuesBefore);
             }
             if (id != null) {
                 roCrateBuilder.upsertEntity(currentEntity);
@@ -425,15 +746,17 @@ public class ROCrateExporter implements Exporter {
             for (LinkedHashMap mapObject : (ArrayList<LinkedHashMap>) dataObject) {
                 ROCrateEntity currentEntity = new ROCrateEntity();
 
-                for (String propertyName : propertyNameValue.keySet()) {
-                    for (String value : propertyNameValue.get(propertyName)) {
+                for (int r = 0; r < rows.size(); r++) {
+                    final String propertyName = rows.get(r).get("targetPropertyName");
+                    final int valuesBefore = countValues(currentEntity, propertyName);
+                    for (String value : rowValues.get(r)) {
                         
                         if (value.startsWith("\"")) {
                             currentEntity.get(propertyName).add(removeQuotations(value));
                         } else if (value.contains("refersTo:")) {
                             Gson gson = new Gson();
                             String dataObjectAsString = gson.toJson(mapObject);
-                            ArrayList<String> referredIds = addReferredEntityAsContextual(csv, dataObjectAsString, value, roCrateBuilder);
+                            ArrayList<String> referredIds = addReferredEntityAsContextual(csv, dataObjectAsString, value, roCrateBuilder, profile);
                             currentEntity.putProperty(propertyName, referredIds, value.substring(9));
 
                         } else if (mapObject.keySet().contains(value)) {
@@ -460,7 +783,7 @@ public class ROCrateExporter implements Exporter {
                             }
                         }
                     }
-
+                    profile.evaluated(rows.get(r), countValues(currentEntity, propertyName) - valuesBefore);
                 }
                 if (id != null) {
                     roCrateBuilder.upsertEntity(currentEntity);
@@ -471,74 +794,132 @@ public class ROCrateExporter implements Exporter {
         return ids;
     }
 
-    static public void addDataEntities(String datasetString, ROCrateBuilder roCrateBuilder) {
+    static String getFolderPath(final String directoryLabel) {
         /*
-         * Adds data entities such as files and folders.
+         * The folder of a directory label as a path relative to the root of the
+         * crate, ending with "/", or "" for the root itself. Empty, "." and ".."
+         * segments are dropped, so the path stays inside the crate.
          */
-        List<LinkedHashMap<String, Object>> files = (List<LinkedHashMap<String, Object>>) JsonPath.read(datasetString, "$.datasetVersion.files");
-        final Map<String, LinkedHashMap<String, Object>> fileEntityMap = new LinkedHashMap<String, LinkedHashMap<String, Object>>();
-        for (LinkedHashMap<String, Object> file : files) {
-            String parentId = ".";
-
-            if (file.get("directoryLabel") != null && !((String) file.get("directoryLabel")).isBlank())
-                for (String pathElement : ((String) file.get("directoryLabel")).split("/")) {
-                    LinkedHashMap<String, Object> parentEntity = fileEntityMap.get(parentId + "/");
-                    if (parentEntity == null) {
-                        parentEntity = new LinkedHashMap<String, Object>();
-                        parentEntity.put("@id", parentId + "/");
-                        parentEntity.put("@type", "Dataset");
-                        parentEntity.put("hasPart", new ArrayList<String>());
-                    }
-                    ArrayList<String> hasPart = (ArrayList<String>) parentEntity.get("hasPart");
-                    if (!hasPart.contains(pathElement + "/")) {
-                        hasPart.add(pathElement + "/");
-                    }
+        final StringBuilder path = new StringBuilder();
+        if (directoryLabel != null && !directoryLabel.isBlank()) {
+            for (String pathElement : directoryLabel.split("/")) {
+                if (!pathElement.isBlank() && !pathElement.equals(".") && !pathElement.equals("..")) {
+                    path.append(pathElement).append('/');
+                }
+            }
+        }
+        return path.toString();
+    }
+
+    static public String getDataEntityId(final String label, final String directoryLabel) {
+        /*
+         * The path id of the File entity of a file: its path relative to the
+         * root of the crate, which is also where it is in a package of the crate.
+         */
+        return getFolderPath(directoryLabel) + label;
+    }
 
-                    parentEntity.put("hasPart", hasPart);
-                    fileEntityMap.put(parentId + "/", parentEntity);
+    static LinkedHashMap<String, Object> getFolderEntity(final String folderId,
+            final Map<String, LinkedHashMap<String, Object>> fileEntityMap) {
+        LinkedHashMap<String, Object> folderEntity = fileEntityMap.get(folderId);
+        if (folderEntity == null) {
+            folderEntity = new LinkedHashMap<String, Object>();
+            folderEntity.put("@id", folderId);
+            folderEntity.put("@type", "Dataset");
+            folderEntity.put("hasPart", new PartList());
+            fileEntityMap.put(folderId, folderEntity);
+        }
+        return folderEntity;
+    }
 
-                    parentId = pathElement;
-                }
+    static public void addDataEntity(final String label, final String directoryLabel,
+            final Map<String, LinkedHashMap<String, Object>> fileEntityMap) {
+        addDataEntity(label, directoryLabel, fileEntityMap, false);
+    }
 
-            LinkedHashMap<String, Object> parentEntity = fileEntityMap.get(parentId + "/");
-            if (parentEntity == null) {
-                parentEntity = new LinkedHashMap<String, Object>();
-                parentEntity.put("@id", parentId + "/");
-                parentEntity.put("@type", "Dataset");
-                parentEntity.put("hasPart", new ArrayList<String>());
-            }
-            ArrayList<String> hasPart = (ArrayList<String>) parentEntity.get("hasPart");
-            if (!hasPart.contains((String) file.get("label"))) {
-                hasPart.add((String) file.get("label"));
+    static public void addDataEntity(final String label, final String directoryLabel,
+            final Map<String, LinkedHashMap<String, Object>> fileEntityMap, final boolean pathIds) {
+        /*
+         * Adds a single file and the folders on its directory label to the file
+         * entity map. A file is identified by its label and a folder by its
+         * name ("raw/"), as in the rocrate_json format so far. With pathIds they
+         * are identified by their path relative to the root of the crate
+         * ("data/raw/", "data/raw/file.txt"), so folders with the same name in
+         * different places are different entities and every id is where the
+         * data entity is in a package of the crate.
+         */
+        String parentId = DetachedDataEntities.ROOT_ID;
+        String folderPath = "";
+        for (String pathElement : getFolderPath(directoryLabel).split("/")) {
+            if (pathElement.isEmpty()) {
+                continue;
             }
-            parentEntity.put("hasPart", hasPart);
-            fileEntityMap.put(parentId + "/", parentEntity);
-            LinkedHashMap<String, Object> fileEntity = fileEntityMap.get((String) file.get("label"));
-
-            if (fileEntity == null) {
-                fileEntity = new LinkedHashMap<String, Object>();
-                fileEntity.put("@id", (String) file.get("label"));
-                fileEntity.put("@type", "File");
-                fileEntityMap.put((String) file.get("label"), fileEntity);
+            folderPath = folderPath + pathElement + "/";
+            final String folderId = pathIds ? folderPath : pathElement + "/";
+            final List<String> hasPart = (List<String>) getFolderEntity(parentId, fileEntityMap).get("hasPart");
+            if (!hasPart.contains(folderId)) {
+                hasPart.add(folderId);
             }
+            parentId = folderId;
+        }
 
+        final String fileId = pathIds ? folderPath + label : label;
+        final List<String> hasPart = (List<String>) getFolderEntity(parentId, fileEntityMap).get("hasPart");
+        if (!hasPart.contains(fileId)) {
+            hasPart.add(fileId);
         }
+        LinkedHashMap<String, Object> fileEntity = fileEntityMap.get(fileId);
+
+        if (fileEntity == null) {
+            fileEntity = new LinkedHashMap<String, Object>();
+            fileEntity.put("@id", fileId);
+            fileEntity.put("@type", "File");
+            fileEntityMap.put(fileId, fileEntity);
+        }
+    }
+
+    static public void putDataEntities(final Map<String, LinkedHashMap<String, Object>> fileEntityMap,
+            final ROCrateBuilder roCrateBuilder) {
+        /*
+         * Puts the files and folders collected by addDataEntity in the RO-Crate.
+         */
         for (String fileEntityId : fileEntityMap.keySet()) {
-            ROCrateEntity dataEntity = roCrateBuilder.get(fileEntityId);
-            LinkedHashMap<String, Object> currentEntityProperties = fileEntityMap.get(fileEntityId);
-            for (String propertyName : currentEntityProperties.keySet()) {
-                Object currentProperty = currentEntityProperties.get(propertyName);
-                if (currentProperty instanceof String) {
-                    dataEntity.get(propertyName).add((String) currentProperty);
-                } else if (currentProperty instanceof ArrayList) {
-                    dataEntity.get(propertyName).merge(((ArrayList<String>) currentProperty));
-                } 
-            }
-            roCrateBuilder.put(fileEntityId, dataEntity);
+            putDataEntity(fileEntityId, fileEntityMap.get(fileEntityId), roCrateBuilder);
+        }
+    }
+
+    static void putDataEntity(final String fileEntityId, final LinkedHashMap<String, Object> currentEntityProperties,
+            final ROCrateBuilder roCrateBuilder) {
+        ROCrateEntity dataEntity = roCrateBuilder.getOrCreate(fileEntityId);
+        for (String propertyName : currentEntityProperties.keySet()) {
+            Object currentProperty = currentEntityProperties.get(propertyName);
+            if (currentProperty instanceof String) {
+                dataEntity.get(propertyName).add((String) currentProperty);
+            } else if (currentProperty instanceof List) {
+                dataEntity.get(propertyName).merge((List<String>) currentProperty);
+            } 
+        }
+        roCrateBuilder.put(fileEntityId, dataEntity);
+    }
+
+    static public void addDataEntities(String datasetString, ROCrateBuilder roCrateBuilder) {
+        /*
+         * Adds data entities such as files and folders.
+         */
+        List<LinkedHashMap<String, Object>> files = (List<LinkedHashMap<String, Object>>) JsonPath.read(datasetString, "$.datasetVersion.files");
+        final Map<String, LinkedHashMap<String, Object>> fileEntityMap = new LinkedHashMap<String, LinkedHashMap<String, Object>>();
+        for (LinkedHashMap<String, Object> file : files) {
+            addDataEntity((String) file.get("label"), (String) file.get("directoryLabel"), fileEntityMap);
         }
+        putDataEntities(fileEntityMap, roCrateBuilder);
     }
 
     static public ArrayList<String> addEntity(CSV csv, String jsonString, String entityName, ROCrateBuilder roCrateBuilder) throws Exception {
+        return addEntity(csv, jsonString, entityName, roCrateBuilder, MappingProfile.DISABLED);
+    }
+
+    static public ArrayList<String> addEntity(CSV csv, String jsonString, String entityName, ROCrateBuilder roCrateBuilder,
+            MappingProfile profile) throws Exception {
         /*
          * Chooses from addRootEntity, addContextualEntity, addFileEntity depending on
          * the rules on the Csv
@@ -553,10 +934,10 @@ public class ROCrateExporter implements Exporter {
 
         if (entitySourcePath.isBlank() && entitySourceField.isBlank()) {
             // is Root?
-            addRootEntity(csv, jsonString, entityName, roCrateBuilder);
+            addRootEntity(csv, jsonString, entityName, roCrateBuilder, profile);
         } else {
             // contextual entity
-            addContextualEntity(csv, jsonString, entityName, roCrateBuilder);
+            addContextualEntity(csv, jsonString, entityName, roCrateBuilder, profile);
         }
         return ids;
     }
@@ -565,14 +946,242 @@ public class ROCrateExporter implements Exporter {
         /*
          * Build RO-Crate from the rules and dataset provided.
          */
+        try (JsonParser parser = DatasetJsonScanner.createParser(datasetJson)) {
+            return buildROCrate(csv, parser);
+        }
+    }
 
-        final ROCrateBuilder roCrateBuilder = new ROCrateBuilder();
-        final JsonArrayBuilder jsonArrayBuilder = Json.createArrayBuilder();
-        final JsonObjectBuilder result = Json.createObjectBuilder();
+    static public JsonObject buildROCrate(final CSV csv, final JsonObject datasetJson, final MappingProfile mappingProfile)
+            throws Exception {
+        /*
+         * Build RO-Crate while recording the cost of each csv row in mappingProfile.
+         */
+        final Map<String, MappingPlan> plans = new LinkedHashMap<String, MappingPlan>();
+        plans.put("", new MappingPlan(csv));
+        try (JsonParser parser = DatasetJsonScanner.createParser(datasetJson)) {
+            return buildPlannedROCrates(plans, parser, 0, null, Map.of("", mappingProfile)).get("");
+        }
+    }
 
-        addEntity(csv, datasetJson.toString(), "Metadata", roCrateBuilder);
-        addDataEntities(datasetJson.toString(), roCrateBuilder);
-        return roCrateBuilder.build();
+    static public JsonObject buildROCrate(final CSV csv, final JsonParser datasetJsonParser) throws Exception {
+        /*
+         * Build RO-Crate from a parser over the dataset JSON. The dataset is read in
+         * one pass: only the parts referenced in the csv are kept for the mappings,
+         * and the files are turned into data entities while they are read.
+         */
+        final Map<String, CSV> csvs = new LinkedHashMap<String, CSV>();
+        csvs.put("", csv);
+        return buildROCrates(csvs, datasetJsonParser).get("");
+    }
+
+    static public Map<String, JsonObject> buildROCrates(final Map<String, CSV> csvsByProfile, final JsonParser datasetJsonParser)
+            throws Exception {
+        /*
+         * Builds one RO-Crate per profile (profile name -> csv) in a single pass
+         * over the dataset. The parsed dataset and the data entities are shared by
+         * all profiles; only the mappings are evaluated per profile.
+         */
+        return buildROCrates(csvsByProfile, datasetJsonParser, 0, null);
+    }
+
+    static public Map<String, JsonObject> buildROCrates(final Map<String, CSV> csvsByProfile, final JsonParser datasetJsonParser,
+            final int maxDataEntitiesPerDocument, final DetachedDataEntities.DocumentSink detachedDocumentSink)
+            throws Exception {
+        /*
+         * As above, but when there are more than maxDataEntitiesPerDocument data
+         * entities, folders are detached into metadata documents of their own.
+         * Those only hold data entities, so they are shared by all profiles and
+         * written to the sink once.
+         */
+        final Map<String, MappingPlan> plansByProfile = new LinkedHashMap<String, MappingPlan>();
+        for (Map.Entry<String, CSV> profile : csvsByProfile.entrySet()) {
+            plansByProfile.put(profile.getKey(), new MappingPlan(profile.getValue()));
+        }
+        return buildPlannedROCrates(plansByProfile, datasetJsonParser, maxDataEntitiesPerDocument, detachedDocumentSink,
+                null);
+    }
+
+    static public Map<String, JsonObject> buildPlannedROCrates(final Map<String, MappingPlan> plansByProfile,
+            final JsonParser datasetJsonParser, final int maxDataEntitiesPerDocument,
+            final DetachedDataEntities.DocumentSink detachedDocumentSink,
+            final Map<String, MappingProfile> mappingProfiles) throws Exception {
+        /*
+         * Builds the RO-Crates from mapping plans that were prepared in advance.
+         * The cost of the mappings of a profile is recorded in its entry of
+         * mappingProfiles, if there is one.
+         */
+        return buildPlannedROCrates(plansByProfile, datasetJsonParser, maxDataEntitiesPerDocument, detachedDocumentSink,
+                mappingProfiles, null);
+    }
+
+    static public Map<String, JsonObject> buildPlannedROCrates(final Map<String, MappingPlan> plansByProfile,
+            final JsonParser datasetJsonParser, final int maxDataEntitiesPerDocument,
+            final DetachedDataEntities.DocumentSink detachedDocumentSink,
+            final Map<String, MappingProfile> mappingProfiles, final ForkJoinPool dataEntityPool) throws Exception {
+        /*
+         * As above, building the folder/file tree of the data entities on
+         * dataEntityPool, in chunks of files, while the dataset is still being
+         * read. Without a pool (null) the files are added one by one.
+         */
+        return buildPlannedROCrates(plansByProfile, datasetJsonParser, maxDataEntitiesPerDocument, detachedDocumentSink,
+                mappingProfiles, dataEntityPool, false, false, false);
+    }
+
+    static public Map<String, JsonObject> buildPlannedROCrates(final Map<String, MappingPlan> plansByProfile,
+            final JsonParser datasetJsonParser, final int maxDataEntitiesPerDocument,
+            final DetachedDataEntities.DocumentSink detachedDocumentSink,
+            final Map<String, MappingProfile> mappingProfiles, final ForkJoinPool dataEntityPool,
+            final boolean compact, final boolean validateGraph, final boolean pathIds) throws Exception {
+        /*
+         * As above, building the crates in compact mode (see ROCrateBuilder.build)
+         * if compact is set, failing with an ExportException if validateGraph is
+         * set and a crate has dangling references, and identifying the data
+         * entities by their paths if pathIds is set (see addDataEntity).
+         */
+        final DataEntityCollector dataEntityCollector = new DataEntityCollector(dataEntityPool,
+                DataEntityCollector.DEFAULT_CHUNK_SIZE, pathIds);
+        final Set<List<String>> referencedPaths = new LinkedHashSet<List<String>>();
+        for (MappingPlan plan : plansByProfile.values()) {
+            referencedPaths.addAll(plan.getReferencedPaths());
+        }
+        final DatasetJsonScanner scanner = new DatasetJsonScanner(referencedPaths);
+
+        final String referencedJson;
+        final Map<String, LinkedHashMap<String, Object>> fileEntityMap;
+        final ExportEvents.DataEntities dataEntitiesEvent = new ExportEvents.DataEntities();
+        try {
+            final ExportEvents.DatasetParse parseEvent = new ExportEvents.DatasetParse();
+            parseEvent.begin();
+            referencedJson = scanner.scan(datasetJsonParser, dataEntityCollector).toString();
+            if (parseEvent.shouldCommit()) {
+                parseEvent.fileCount = dataEntityCollector.getFileCount();
+                parseEvent.referencedPathCount = referencedPaths.size();
+                parseEvent.referencedJsonLength = referencedJson.length();
+                parseEvent.commit();
+            }
+
+            dataEntitiesEvent.begin();
+            fileEntityMap = dataEntityCollector.getFileEntityMap();
+        } finally {
+            // the chunks submitted so far, if reading the dataset failed
+            dataEntityCollector.cancel();
+        }
+        final DetachedDataEntities dataEntities = new DetachedDataEntities(fileEntityMap,
+                detachedDocumentSink == null ? 0 : maxDataEntitiesPerDocument);
+        if (dataEntitiesEvent.shouldCommit()) {
+            dataEntitiesEvent.fileCount = dataEntityCollector.getFileCount();
+            dataEntitiesEvent.dataEntityCount = fileEntityMap.size();
+            dataEntitiesEvent.detachedDocumentCount = dataEntities.getDetachedFolders().size();
+            dataEntitiesEvent.parallel = dataEntityPool != null;
+            dataEntitiesEvent.commit();
+        }
+        final Map<String, JsonObject> roCrates = new LinkedHashMap<String, JsonObject>();
+        for (Map.Entry<String, MappingPlan> profile : plansByProfile.entrySet()) {
+            final ROCrateBuilder roCrateBuilder = new ROCrateBuilder();
+            final MappingProfile mappingProfile = mappingProfiles == null ? MappingProfile.DISABLED
+                    : mappingProfiles.getOrDefault(profile.getKey(), MappingProfile.DISABLED);
+            // explainDataset always reports the references
+            roCrateBuilder.setValidation(validateGraph || mappingProfile.isEnabled());
+            final long start = System.nanoTime();
+            addEntity(profile.getValue().getCsv(), referencedJson, "Metadata", roCrateBuilder, mappingProfile);
+            mappingProfile.addTotalNanos(System.nanoTime() - start);
+            dataEntities.putRootDataEntities(roCrateBuilder);
+            roCrates.put(profile.getKey(), roCrateBuilder.build(compact));
+            final ROCrateGraphReport graphReport = roCrateBuilder.getGraphReport();
+            if (mappingProfile.isEnabled()) {
+                mappingProfile.setGraphReport(graphReport);
+            }
+            if (validateGraph && !graphReport.getDanglingReferences().isEmpty()) {
+                throw new ExportException(getDanglingReferencesMessage(profile.getKey(), graphReport));
+            }
+        }
+        if (detachedDocumentSink != null) {
+            dataEntities.writeDetachedDocuments(detachedDocumentSink);
+        }
+        return roCrates;
+    }
+
+    static String getDanglingReferencesMessage(final String profile, final ROCrateGraphReport graphReport) {
+        // the first dangling references, enough to find the csv rows that made them
+        final List<ROCrateGraphReport.DanglingReference> danglingReferences = graphReport.getDanglingReferences();
+        final StringBuilder message = new StringBuilder("The RO-Crate");
+        if (!profile.isEmpty()) {
+            message.append(" of profile ").append(profile);
+        }
+        message.append(" has ").append(danglingReferences.size()).append(" dangling references: ");
+        message.append(danglingReferences.subList(0, Math.min(10, danglingReferences.size())));
+        if (danglingReferences.size() > 10) {
+            message.append(" and ").append(danglingReferences.size() - 10).append(" more");
+        }
+        return message.toString();
+    }
+
+    static String writeROCrate(final JsonObject roCrateJsonLd, final OutputStream outputStream,
+            final BufferPool bufferPool) throws Exception {
+        return writeROCrate(roCrateJsonLd, outputStream, bufferPool, null);
+    }
+
+    static String writeROCrate(final JsonObject roCrateJsonLd, final OutputStream outputStream,
+            final BufferPool bufferPool, final ForkJoinPool serializationPool) throws Exception {
+        /*
+         * Writes the crate as UTF-8 while it is serialized, without first making a
+         * String of it. The characters are encoded into a buffer from bufferPool
+         * that is written out whenever it is full. With a serializationPool, a
+         * large @graph is serialized in chunks in parallel (see GraphChunkWriter).
+         * The output is the same as roCrateJsonLd.toString(). The stream is
+         * flushed but not closed.
+         *
+         * Returns the SHA-256 of the written bytes in hex, computed as they are
+         * written. The entities and their properties are always written in the
+         * order they were built, which only depends on the dataset and the csv, so
+         * the same crate gets the same fingerprint.
+         */
+        final ExportEvents.Serialization event = new ExportEvents.Serialization();
+        event.begin();
+        final GraphChunkWriter chunkWriter = new GraphChunkWriter(serializationPool,
+                GraphChunkWriter.DEFAULT_CHUNK_SIZE, bufferPool);
+        final MessageDigest digest = ExportFingerprint.newDigest();
+        final PooledUtf8Writer writer = new PooledUtf8Writer(new DigestOutputStream(outputStream, digest), bufferPool);
+        try {
+            if (chunkWriter.canWrite(roCrateJsonLd)) {
+                chunkWriter.write(roCrateJsonLd, writer);
+            } else {
+                final JsonGenerator generator = GENERATOR_FACTORY.createGenerator(writer);
+                generator.write(roCrateJsonLd);
+                generator.close();
+            }
+        } finally {
+            writer.close();
+        }
+        final String fingerprint = HexFormat.of().formatHex(digest.digest());
+        if (event.shouldCommit()) {
+            event.entityCount = roCrateJsonLd.containsKey("@graph") ? roCrateJsonLd.getJsonArray("@graph").size() : 0;
+            event.bytes = writer.getByteCount();
+            event.chunkCount = chunkWriter.getChunkCount();
+            event.fingerprint = fingerprint;
+            event.commit();
+        }
+        return fingerprint;
+    }
+
+    public String writeROCrate(final JsonObject roCrateJsonLd, final OutputStream outputStream) throws Exception {
+        /*
+         * Writes a crate with the buffers and serialization threads of this
+         * exporter, and returns its fingerprint.
+         */
+        return writeROCrate(roCrateJsonLd, outputStream, this.bufferPool, this.serializationPool);
+    }
+
+    void writeExport(final JsonObject datasetJson, final JsonObject roCrateJsonLd, final OutputStream outputStream,
+            final ExportFingerprint fingerprint) throws Exception {
+        /*
+         * Writes the crate exported from datasetJson to the output stream given by
+         * Dataverse, adding the digest of each written document or entry to
+         * fingerprint. Overridden by exporters of other encodings or packagings of
+         * the same crate, which add the digests of the crate and its files
+         * themselves, not of the encoded output.
+         */
+        fingerprint.add(DetachedDataEntities.METADATA_DOCUMENT, writeROCrate(roCrateJsonLd, outputStream));
     }
 
     @Override
@@ -580,13 +1189,173 @@ public class ROCrateExporter implements Exporter {
         /*
          * Exports dataset metadata as ro-crate-metadata.json
          */
-        try {
-            CSV csv = new CSV(this.csvPath);
-            JsonObject roCrateJsonLd = buildROCrate(csv, dataProvider.getDatasetJson());
-            outputStream.write(roCrateJsonLd.toString().getBytes("UTF8"));
-            outputStream.flush();
+        exportDatasetWithFingerprint(dataProvider, outputStream);
+    }
+
+    public String exportDatasetWithFingerprint(ExportDataProvider dataProvider, OutputStream outputStream)
+            throws ExportException {
+        /*
+         * Exports the dataset like exportDataset and returns its fingerprint (see
+         * ExportFingerprint), computed while it is written: the SHA-256 (in hex)
+         * of the ro-crate-metadata.json, or of the digests of all documents when
+         * detached documents are written as well. Exports of an unchanged dataset
+         * with the same csv get the same fingerprint, so it can serve as an ETag or
+         * to skip unchanged crates downstream.
+         */
+        final JsonObject datasetJson = dataProvider.getDatasetJson();
+        final ExportFingerprint fingerprint = new ExportFingerprint();
+        DetachedDataEntities.DocumentSink detachedDocumentSink = null;
+        if (this.maxDataEntitiesPerDocument > 0 && this.detachedDocumentDirectory != null) {
+            final Path datasetDirectory = Path.of(this.detachedDocumentDirectory,
+                    datasetJson.getString("identifier", "dataset").replace("/", "_")).normalize();
+            detachedDocumentSink = (documentId, document) -> {
+                Path documentPath = datasetDirectory.resolve(documentId).normalize();
+                if (!documentPath.startsWith(datasetDirectory)) {
+                    throw new ExportException("Detached document outside of the dataset directory: " + documentId);
+                }
+                Files.createDirectories(documentPath.getParent());
+                try (OutputStream documentStream = Files.newOutputStream(documentPath)) {
+                    fingerprint.add(documentId, writeROCrate(document, documentStream));
+                }
+            };
+        }
+        return exportDataset(datasetJson, outputStream, detachedDocumentSink, fingerprint);
+    }
+
+    public CompletableFuture<String> exportDatasetAsync(ExportDataProvider dataProvider, OutputStream outputStream) {
+        /*
+         * Exports the dataset like exportDatasetWithFingerprint, in the
+         * background. The future completes with the fingerprint when the crate is
+         * written, or with the ExportException of a failed export. Cancelling it
+         * interrupts the export.
+         */
+        return getAsyncExports().submit(() -> exportDatasetWithFingerprint(dataProvider, outputStream));
+    }
+
+    public String exportDataset(ExportDataProvider dataProvider, OutputStream outputStream,
+            DetachedDataEntities.DocumentSink detachedDocumentSink) throws ExportException {
+        /*
+         * Exports dataset metadata as ro-crate-metadata.json, passing the metadata
+         * documents of detached folders to detachedDocumentSink when the dataset
+         * has more data entities than set with setMaxDataEntitiesPerDocument.
+         * Returns the fingerprint of what the exporter wrote; the documents the
+         * sink writes are not part of it.
+         */
+        return exportDataset(dataProvider.getDatasetJson(), outputStream, detachedDocumentSink);
+    }
+
+    ExportEvents.Export beginExportEvent(JsonObject datasetJson, long datasetJsonBytes, int profileCount) {
+        final ExportEvents.Export event = new ExportEvents.Export();
+        if (event.isEnabled()) {
+            event.formatName = getFormatName();
+            event.datasetIdentifier = datasetJson.getString("identifier", null);
+            event.datasetJsonBytes = datasetJsonBytes;
+            event.fileCount = ExportAdmission.getFileCount(datasetJson);
+            event.profileCount = profileCount;
+        }
+        event.begin();
+        return event;
+    }
+
+    String exportDataset(JsonObject datasetJson, OutputStream outputStream,
+            DetachedDataEntities.DocumentSink detachedDocumentSink) throws ExportException {
+        return exportDataset(datasetJson, outputStream, detachedDocumentSink, new ExportFingerprint());
+    }
+
+    String exportDataset(JsonObject datasetJson, OutputStream outputStream,
+            DetachedDataEntities.DocumentSink detachedDocumentSink, ExportFingerprint fingerprint)
+            throws ExportException {
+        final long datasetJsonBytes = ExportAdmission.getJsonBytes(datasetJson);
+        final ExportEvents.Export event = beginExportEvent(datasetJson, datasetJsonBytes, 1);
+        try (ExportAdmission.Permit permit = this.exportAdmission.acquire(
+                ExportAdmission.estimateBytes(ExportAdmission.getFileCount(datasetJson), datasetJsonBytes))) {
+            final Map<String, MappingPlan> plans = new LinkedHashMap<String, MappingPlan>();
+            plans.put("", getMappingPlan(this.csvPath));
+            final JsonObject roCrateJsonLd;
+            try (JsonParser parser = DatasetJsonScanner.createParser(datasetJson)) {
+                roCrateJsonLd = buildPlannedROCrates(plans, parser, this.maxDataEntitiesPerDocument, detachedDocumentSink,
+                        null, this.dataEntityPool, this.compactOutput, this.graphValidation, hasPathIds()).get("");
+            }
+            writeExport(datasetJson, roCrateJsonLd, outputStream, fingerprint);
+            return fingerprint.get();
+        } catch (ExportException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ExportException(e.toString());
+        } finally {
+            event.commit();
+        }
+    }
+
+    public JsonObject explainDataset(ExportDataProvider dataProvider, OutputStream outputStream) throws ExportException {
+        /*
+         * Exports the dataset like exportDataset and returns a report of what each
+         * row of the mapping csv cost: evaluations, JsonPath lookups and their time,
+         * values produced and refersTo: depth. Meant for checking a csv before
+         * deploying it.
+         */
+        final JsonObject datasetJson = dataProvider.getDatasetJson();
+        final long datasetJsonBytes = ExportAdmission.getJsonBytes(datasetJson);
+        final ExportEvents.Export event = beginExportEvent(datasetJson, datasetJsonBytes, 1);
+        try (ExportAdmission.Permit permit = this.exportAdmission.acquire(
+                ExportAdmission.estimateBytes(ExportAdmission.getFileCount(datasetJson), datasetJsonBytes))) {
+            final MappingPlan plan = getMappingPlan(this.csvPath);
+            final MappingProfile mappingProfile = new MappingProfile(plan.getCsv());
+            final JsonObject roCrateJsonLd;
+            try (JsonParser parser = DatasetJsonScanner.createParser(datasetJson)) {
+                roCrateJsonLd = buildPlannedROCrates(Map.of("", plan), parser, 0, null, Map.of("", mappingProfile),
+                        this.dataEntityPool, this.compactOutput, this.graphValidation, hasPathIds()).get("");
+            }
+            writeExport(datasetJson, roCrateJsonLd, outputStream, new ExportFingerprint());
+            return mappingProfile.toJson();
+        } catch (ExportException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ExportException(e.toString());
+        } finally {
+            event.commit();
+        }
+    }
+
+    public Map<String, String> exportDatasets(ExportDataProvider dataProvider,
+            Map<String, OutputStream> outputStreamsByProfile) throws ExportException {
+        /*
+         * Exports the dataset once per profile set with setProfileCsvPaths, writing
+         * each profile's ro-crate-metadata.json to its own output stream. The dataset
+         * is only read and its files only processed once for all profiles. Returns
+         * the fingerprint of each profile's crate.
+         */
+        final JsonObject datasetJson = dataProvider.getDatasetJson();
+        final long datasetJsonBytes = ExportAdmission.getJsonBytes(datasetJson);
+        final ExportEvents.Export event = beginExportEvent(datasetJson, datasetJsonBytes, outputStreamsByProfile.size());
+        try (ExportAdmission.Permit permit = this.exportAdmission.acquire(outputStreamsByProfile.size()
+                * ExportAdmission.estimateBytes(ExportAdmission.getFileCount(datasetJson), datasetJsonBytes))) {
+            final Map<String, MappingPlan> plansByProfile = new LinkedHashMap<String, MappingPlan>();
+            for (String profile : outputStreamsByProfile.keySet()) {
+                String profileCsvPath = this.profileCsvPaths.get(profile);
+                if (profileCsvPath == null) {
+                    throw new ExportException("No mapping csv is set for RO-Crate profile " + profile);
+                }
+                plansByProfile.put(profile, getMappingPlan(profileCsvPath));
+            }
+            final Map<String, JsonObject> roCrates;
+            try (JsonParser parser = DatasetJsonScanner.createParser(datasetJson)) {
+                roCrates = buildPlannedROCrates(plansByProfile, parser, 0, null, null, this.dataEntityPool,
+                        this.compactOutput, this.graphValidation, hasPathIds());
+            }
+            final Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+            for (String profile : roCrates.keySet()) {
+                final ExportFingerprint fingerprint = new ExportFingerprint();
+                writeExport(datasetJson, roCrates.get(profile), outputStreamsByProfile.get(profile), fingerprint);
+                fingerprints.put(profile, fingerprint.get());
+            }
+            return fingerprints;
+        } catch (ExportException e) {
+            throw e;
         } catch (Exception e) {
             throw new ExportException(e.toString());
+        } finally {
+            event.commit();
         }
     }
-}
\ No newline at end of file
+}
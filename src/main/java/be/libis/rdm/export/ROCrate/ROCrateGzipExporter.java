@@ -0,0 +1,44 @@
+package be.libis.rdm.export.ROCrate;
+
+import com.google.auto.service.AutoService;
+import io.gdcc.spi.export.Exporter;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+import jakarta.json.JsonObject;
+
+// The same RO-Crate as ROCrateExporter, gzip-compressed. Dataverse caches the
+// export of each format, so the compressed crate is stored and served as is.
+@AutoService(Exporter.class)
+public class ROCrateGzipExporter extends ROCrateExporter {
+
+    static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    @Override
+    public String getFormatName() {
+        return "rocrate_json_gz";
+    }
+
+    @Override
+    public String getDisplayName(Locale locale) {
+        return "RO-Crate (gzip)";
+    }
+
+    @Override
+    public String getMediaType() {
+        return "application/gzip";
+    }
+
+    @Override
+    void writeExport(final JsonObject datasetJson, final JsonObject roCrateJsonLd, final OutputStream outputStream,
+            final ExportFingerprint fingerprint) throws Exception {
+        /*
+         * Compresses the crate while it is serialized. The gzip stream is finished
+         * rather than closed, as the output stream belongs to the caller.
+         */
+        final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE);
+        fingerprint.add(DetachedDataEntities.METADATA_DOCUMENT, writeROCrate(roCrateJsonLd, gzipOutputStream));
+        gzipOutputStream.finish();
+        outputStream.flush();
+    }
+}
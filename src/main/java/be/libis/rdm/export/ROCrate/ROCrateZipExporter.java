@@ -0,0 +1,245 @@
+package be.libis.rdm.export.ROCrate;
+
+import io.gdcc.spi.export.ExportDataProvider;
+import io.gdcc.spi.export.ExportException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+
+/**
+ * Exports a whole RO-Crate as a ZIP package: ro-crate-metadata.json followed by
+ * the data files, read from the local file storage of Dataverse. The data
+ * entities of the package are identified by their paths, so each @id resolves
+ * to its entry; the rocrate_json and rocrate_json_gz formats keep their ids.
+ *
+ * Unlike those formats it is deliberately not registered with
+ * {@code @AutoService(Exporter.class)}: Dataverse runs every registered
+ * exporter when a dataset is published and caches its output, which would keep
+ * a second copy of all files of every dataset. Pipelines that want packages
+ * create it and call it directly.
+ */
+public class ROCrateZipExporter extends ROCrateExporter {
+
+    static final String METADATA_ENTRY = "ro-crate-metadata.json";
+
+    // The files.directory of the Dataverse file store, null for no data files.
+    String storageRoot = System.getProperty("rocrate.export.storageRoot");
+
+    @Override
+    public String getFormatName() {
+        return "rocrate_zip";
+    }
+
+    @Override
+    public String getDisplayName(Locale locale) {
+        return "RO-Crate (ZIP package)";
+    }
+
+    @Override
+    public String getMediaType() {
+        return "application/zip";
+    }
+
+    @Override
+    boolean hasPathIds() {
+        return true;
+    }
+
+    public void setStorageRoot(String newStorageRoot) {
+        /*
+         * Sets the directory the data files are read from. Files are looked up
+         * like the Dataverse file storage driver stores them:
+         * <storage root>/<authority>/<identifier>/<storage identifier>.
+         */
+        this.storageRoot = newStorageRoot;
+    }
+
+    @Override
+    public String exportDatasetWithFingerprint(ExportDataProvider dataProvider, OutputStream outputStream)
+            throws ExportException {
+        /*
+         * Exports the dataset as a ZIP package and returns the fingerprint of the
+         * package's ro-crate-metadata.json and data files. All data entities stay
+         * in the package's ro-crate-metadata.json: it is never split into detached
+         * documents.
+         */
+        return exportDataset(dataProvider.getDatasetJson(), outputStream, null);
+    }
+
+    static boolean isEntryName(final String id) {
+        /*
+         * Whether a data entity @id can be used as is as the path of its file in
+         * the package: relative, without empty, "." or ".." segments, so it
+         * cannot point outside the extracted crate. Path ids made by
+         * addDataEntity always are.
+         */
+        if (id.isEmpty() || id.startsWith("/") || id.endsWith("/")) {
+            return false;
+        }
+        for (String segment : id.split("/", -1)) {
+            if (segment.isBlank() || segment.equals(".") || segment.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static List<String> getParts(final JsonObject entity) {
+        /*
+         * The ids in the hasPart of an entity, written as a single value or an
+         * array, of strings or {"@id": ...} references.
+         */
+        final JsonValue hasPart = entity == null ? null : entity.get("hasPart");
+        if (hasPart == null) {
+            return List.of();
+        }
+        final List<JsonValue> values = hasPart.getValueType() == JsonValue.ValueType.ARRAY ? hasPart.asJsonArray()
+                : List.of(hasPart);
+        final List<String> parts = new ArrayList<String>();
+        for (JsonValue value : values) {
+            if (value instanceof JsonString) {
+                parts.add(((JsonString) value).getString());
+            } else if (value instanceof JsonObject && ((JsonObject) value).get("@id") instanceof JsonString) {
+                parts.add(((JsonObject) value).getString("@id"));
+            }
+        }
+        return parts;
+    }
+
+    static List<String> getPayloadIds(final JsonObject roCrateJsonLd) {
+        /*
+         * The ids of the File entities of the crate in the order of its hasPart
+         * tree: depth first from the root, the parts of each folder in their
+         * hasPart order. These are the data entities the package has to hold.
+         */
+        final Map<String, JsonObject> entities = new HashMap<String, JsonObject>();
+        for (JsonValue value : roCrateJsonLd.getJsonArray("@graph")) {
+            final JsonObject entity = value.asJsonObject();
+            if (entity.get("@id") instanceof JsonString) {
+                entities.put(entity.getString("@id"), entity);
+            }
+        }
+        final List<String> ids = new ArrayList<String>();
+        final Set<String> seen = new HashSet<String>();
+        final Deque<String> pending = new ArrayDeque<String>();
+        pending.push(DetachedDataEntities.ROOT_ID);
+        while (!pending.isEmpty()) {
+            final String id = pending.pop();
+            if (!seen.add(id)) {
+                continue;
+            }
+            final List<String> parts = getParts(entities.get(id));
+            if (!id.endsWith("/")) {
+                ids.add(id);
+            }
+            for (int i = parts.size() - 1; i >= 0; i--) {
+                pending.push(parts.get(i));
+            }
+        }
+        return ids;
+    }
+
+    static Map<String, JsonObject> getFilesById(final JsonObject datasetJson) {
+        /*
+         * The files of the dataset by the path id addDataEntity gives their
+         * entity.
+         */
+        final Map<String, JsonObject> files = new HashMap<String, JsonObject>();
+        final JsonObject datasetVersion = datasetJson.getJsonObject("datasetVersion");
+        if (datasetVersion == null || !(datasetVersion.get("files") instanceof JsonArray)) {
+            return files;
+        }
+        for (JsonValue value : datasetVersion.getJsonArray("files")) {
+            final JsonObject file = value.asJsonObject();
+            final String label = file.getString("label", null);
+            if (label != null) {
+                files.putIfAbsent(getDataEntityId(label, file.getString("directoryLabel", null)), file);
+            }
+        }
+        return files;
+    }
+
+    Path getStoragePath(final JsonObject datasetJson, final JsonObject file) {
+        /*
+         * Where the file is stored, or null if it is not in the local storage.
+         */
+        final JsonObject dataFile = file.getJsonObject("dataFile");
+        if (this.storageRoot == null || dataFile == null) {
+            return null;
+        }
+        String storageIdentifier = dataFile.getString("storageIdentifier", "");
+        // "<driver>://<id>", or "<driver>://<bucket>:<id>" for object stores
+        storageIdentifier = storageIdentifier.substring(storageIdentifier.indexOf("://") + 1).replaceFirst("^/+", "");
+        storageIdentifier = storageIdentifier.substring(storageIdentifier.lastIndexOf(':') + 1);
+        if (storageIdentifier.isBlank()) {
+            return null;
+        }
+        final Path root = Path.of(this.storageRoot).toAbsolutePath().normalize();
+        final Path path = root.resolve(datasetJson.getString("authority", ""))
+                .resolve(datasetJson.getString("identifier", "")).resolve(storageIdentifier).normalize();
+        return path.startsWith(root) && Files.isRegularFile(path) ? path : null;
+    }
+
+    @Override
+    void writeExport(final JsonObject datasetJson, final JsonObject roCrateJsonLd, final OutputStream outputStream,
+            final ExportFingerprint fingerprint) throws Exception {
+        /*
+         * Writes the package. Each File entity of the crate gets its data file at
+         * the path of its @id, so every data entity resolves to its entry. Data
+         * files are copied from their FileChannel into the ZIP stream a block at
+         * a time, never read into memory as a whole, and digested on the way for
+         * the fingerprint. Files that are not in the local storage (e.g. in an
+         * object store) are listed in the metadata only. The ZIP stream is
+         * finished, not closed, as the output stream belongs to the caller.
+         */
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        zipOutputStream.putNextEntry(new ZipEntry(METADATA_ENTRY));
+        fingerprint.add(METADATA_ENTRY, writeROCrate(roCrateJsonLd, zipOutputStream));
+        zipOutputStream.closeEntry();
+
+        final MessageDigest entryDigest = ExportFingerprint.newDigest();
+        final WritableByteChannel zipChannel = Channels.newChannel(new DigestOutputStream(zipOutputStream, entryDigest));
+        final Map<String, JsonObject> filesById = getFilesById(datasetJson);
+        for (String entryName : getPayloadIds(roCrateJsonLd)) {
+            final JsonObject file = filesById.get(entryName);
+            final Path storagePath = file == null ? null : getStoragePath(datasetJson, file);
+            if (storagePath == null || !isEntryName(entryName) || entryName.equals(METADATA_ENTRY)) {
+                continue;
+            }
+            final ZipEntry entry = new ZipEntry(entryName);
+            entry.setLastModifiedTime(Files.getLastModifiedTime(storagePath));
+            zipOutputStream.putNextEntry(entry);
+            try (FileChannel fileChannel = FileChannel.open(storagePath)) {
+                final long size = fileChannel.size();
+                long position = 0;
+                while (position < size) {
+                    position += fileChannel.transferTo(position, size - position, zipChannel);
+                }
+            }
+            zipOutputStream.closeEntry();
+            fingerprint.add(entryName, entryDigest);
+        }
+        zipOutputStream.finish();
+        outputStream.flush();
+    }
+}
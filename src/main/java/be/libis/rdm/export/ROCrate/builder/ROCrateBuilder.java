@@ -1,52 +1,276 @@
 package be.libis.rdm.export.ROCrate.builder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import jakarta.json.Json;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import jakarta.json.JsonArray;
 import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
 
 
 public class ROCrateBuilder {
+    // ids that are not expected to have an entity in the graph: scheme:...
+    static final Pattern ABSOLUTE_IRI = Pattern.compile("^[A-Za-z][A-Za-z0-9+.\\-]*:");
+    static final String METADATA_DESCRIPTOR_ID = "ro-crate-metadata.json";
+    static final String ROOT_ID = "./";
+    static final String LOCAL_ID_PREFIX = "#";
+
     final LinkedHashMap<String, ROCrateEntity> entities;
+    // Every id seen, of an entity or, once validated, of a reference, numbered
+    // densely in the order it was first seen.
+    final HashMap<String, Integer> idNumbers;
+    final ArrayList<String> ids;
+    // Validate the references in build(), see setValidation.
+    private boolean validation = false;
+    private ROCrateGraphReport graphReport = null;
 
     public ROCrateBuilder() {
         this.entities = new LinkedHashMap<String, ROCrateEntity>();
+        this.idNumbers = new HashMap<String, Integer>();
+        this.ids = new ArrayList<String>();
     }
 
-
+    int getIdNumber(final String id) {
+        Integer number = this.idNumbers.get(id);
+        if (number == null) {
+            number = this.ids.size();
+            this.idNumbers.put(id, number);
+            this.ids.add(id);
+        }
+        return number;
+    }
 
     public ROCrateEntity get(final String entityId) {
-        final ROCrateEntity entity;
-        if (this.entities.get(entityId)==null) {
+        /*
+         * The entity with entityId, or null if the graph has none; use
+         * getOrCreate to add it.
+         */
+        final ROCrateEntity entity = this.entities.get(entityId);
+        if (entity != null) {
+            entity.putProperty("@id", entityId);
+        }
+        return entity;
+    }
+
+    public ROCrateEntity getOrCreate(final String entityId) {
+        ROCrateEntity entity = get(entityId);
+        if (entity == null) {
             entity = new ROCrateEntity();
-            this.entities.put(entityId, entity);       
-        } else {
-            entity = this.entities.get(entityId);
             entity.putProperty("@id", entityId);
+            put(entityId, entity);
         }
         return entity;
     }
-    
+
+    public int size() {
+        return this.entities.size();
+    }
+
     public void put(final String entityId, final ROCrateEntity entity) {
         this.entities.put(entityId, entity);
+        getIdNumber(entityId);
     }
 
 
     public void upsertEntity(final ROCrateEntity entity) {
         String id = entity.get("@id").values.get(0);
-        this.get(id).updateProperties(entity.getProperties());
-        
+        this.getOrCreate(id).updateProperties(entity.getProperties());
+
+    }
+
+    static boolean isReference(final String propertyName, final ROCrateEntityProperty property) {
+        // hasPart of the data entities holds ids without being marked refersTo
+        return (property.refersTo != null && !property.refersTo.isEmpty()) || propertyName.equals("hasPart");
+    }
+
+    public void setValidation(final boolean newValidation) {
+        /*
+         * Validates the references of the graph in every build(), see
+         * getGraphReport.
+         */
+        this.validation = newValidation;
+    }
+
+    public ROCrateGraphReport getGraphReport() {
+        /*
+         * The dangling references and orphan entities found by the last build()
+         * with validation set, or null.
+         */
+        return this.graphReport;
+    }
+
+    public ROCrateGraphReport validate() {
+        /*
+         * Checks the references between the entities in one pass over the graph
+         * and reports dangling references and orphan entities. Each reference is
+         * resolved to the number of its id once, so which ids are entities and
+         * which are referred to are bit sets; time and memory are linear in the
+         * size of the graph.
+         */
+        final BitSet isEntity = new BitSet(this.ids.size());
+        for (String entityId : this.entities.keySet()) {
+            isEntity.set(getIdNumber(entityId));
+        }
+        final List<ROCrateGraphReport.DanglingReference> danglingReferences = new ArrayList<ROCrateGraphReport.DanglingReference>();
+        final BitSet isReferenced = new BitSet(this.ids.size());
+        long referenceCount = 0;
+        for (Map.Entry<String, ROCrateEntity> entity : this.entities.entrySet()) {
+            final int entityNumber = getIdNumber(entity.getKey());
+            for (Map.Entry<String, ROCrateEntityProperty> property : entity.getValue().getProperties().entrySet()) {
+                if (!isReference(property.getKey(), property.getValue())) {
+                    continue;
+                }
+                for (String targetId : property.getValue().values) {
+                    final int targetNumber = getIdNumber(targetId);
+                    referenceCount++;
+                    if (targetNumber != entityNumber) {
+                        isReferenced.set(targetNumber);
+                    }
+                    if (!isEntity.get(targetNumber) && !ABSOLUTE_IRI.matcher(targetId).find()) {
+                        danglingReferences.add(new ROCrateGraphReport.DanglingReference(entity.getKey(),
+                                property.getKey(), targetId));
+                    }
+                }
+            }
+        }
+        final List<String> orphanIds = new ArrayList<String>();
+        for (String entityId : this.entities.keySet()) {
+            if (!isReferenced.get(getIdNumber(entityId)) && !entityId.equals(METADATA_DESCRIPTOR_ID)) {
+                orphanIds.add(entityId);
+            }
+        }
+        return new ROCrateGraphReport(this.entities.size(), referenceCount, danglingReferences, orphanIds);
     }
 
     public JsonObject build( ) {
-        final JsonObjectBuilder jsonObjectBuilder = Json.createObjectBuilder();
-        final  JsonArrayBuilder graph = Json.createArrayBuilder();
-        for (final ROCrateEntity entity:this.entities.values()) {
-            JsonObject properties = entity.asJsonArray();
+        return build(false);
+    }
+
+    static boolean isEmptyEntity(final JsonObject properties) {
+        // no properties, or none that makes it a node of the graph
+        return !properties.containsKey("@id");
+    }
+
+    Set<String> getDataEntityIds() {
+        // "./" and the entities reached from it through hasPart
+        final HashSet<String> dataEntityIds = new HashSet<String>();
+        final ArrayDeque<String> next = new ArrayDeque<String>();
+        next.add(ROOT_ID);
+        while (!next.isEmpty()) {
+            final String id = next.poll();
+            final ROCrateEntity entity = this.entities.get(id);
+            if (dataEntityIds.add(id) && entity != null && entity.getProperties().containsKey("hasPart")) {
+                next.addAll(entity.getProperties().get("hasPart").values);
+            }
+        }
+        return dataEntityIds;
+    }
+
+    HashMap<String, String> getShortIds() {
+        /*
+         * Short local ids ("#" and a number in base 36, in graph order) for the
+         * contextual entities whose @id is not an absolute IRI, not already a
+         * local "#" id and not the path of a data entity. Those ids only name
+         * the entity within the crate, so RO-Crate 1.1 recommends local ids for
+         * them. Ids already in the graph are never handed out, and ids that are
+         * not longer than their short id are kept.
+         */
+        final Set<String> dataEntityIds = getDataEntityIds();
+        final HashMap<String, String> shortIds = new HashMap<String, String>();
+        int next = 0;
+        for (String id : this.entities.keySet()) {
+            if (id.equals(METADATA_DESCRIPTOR_ID) || id.startsWith(LOCAL_ID_PREFIX) || dataEntityIds.contains(id)
+                    || ABSOLUTE_IRI.matcher(id).find()) {
+                continue;
+            }
+            String shortId;
+            do {
+                shortId = LOCAL_ID_PREFIX + Integer.toString(next++, 36);
+            } while (this.entities.containsKey(shortId));
+            if (shortId.length() < id.length()) {
+                shortIds.put(id, shortId);
+            }
+        }
+        return shortIds;
+    }
+
+    static boolean hasShortIds(final String entityId, final ROCrateEntity entity, final Map<String, String> shortIds) {
+        // whether the entity or one of its references gets a short id
+        if (shortIds.containsKey(entityId)) {
+            return true;
+        }
+        for (ROCrateEntityProperty property : entity.getProperties().values()) {
+            if (property.refersTo != null && !property.refersTo.isEmpty()) {
+                for (String value : property.values) {
+                    if (shortIds.containsKey(value)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    static JsonValue withShortIds(final JsonValue value, final Map<String, String> shortIds) {
+        // value with the @id of each node and reference replaced by its short id
+        if (value.getValueType() == JsonValue.ValueType.ARRAY) {
+            final JsonArrayBuilder array = ROCrateEntity.BUILDER_FACTORY.createArrayBuilder();
+            for (JsonValue element : (JsonArray) value) {
+                array.add(withShortIds(element, shortIds));
+            }
+            return array.build();
+        }
+        if (value.getValueType() != JsonValue.ValueType.OBJECT) {
+            return value;
+        }
+        final JsonObjectBuilder object = ROCrateEntity.BUILDER_FACTORY.createObjectBuilder();
+        for (Map.Entry<String, JsonValue> member : ((JsonObject) value).entrySet()) {
+            if (member.getKey().equals("@id") && member.getValue() instanceof JsonString
+                    && shortIds.containsKey(((JsonString) member.getValue()).getString())) {
+                object.add("@id", shortIds.get(((JsonString) member.getValue()).getString()));
+            } else {
+                object.add(member.getKey(), withShortIds(member.getValue(), shortIds));
+            }
+        }
+        return object.build();
+    }
+
+    public JsonObject build(final boolean compact) {
+        /*
+         * Builds the crate, validating its references if validation is set. In
+         * compact mode entities without an @id (put without properties) are
+         * left out, and local contextual entities get short ids (see
+         * getShortIds), in their @id and in every reference to them.
+         * Data entities keep their paths and absolute IRIs stay as they are, so
+         * the crate is still valid RO-Crate 1.1. Properties without values,
+         * duplicate values and single values written without an array are the
+         * same in both modes.
+         */
+        final Map<String, String> shortIds = compact ? getShortIds() : Map.of();
+        final JsonObjectBuilder jsonObjectBuilder = ROCrateEntity.BUILDER_FACTORY.createObjectBuilder();
+        final  JsonArrayBuilder graph = ROCrateEntity.BUILDER_FACTORY.createArrayBuilder();
+        for (final Map.Entry<String, ROCrateEntity> entity : this.entities.entrySet()) {
+            JsonObject properties = entity.getValue().asJsonArray();
+            if (compact && isEmptyEntity(properties)) {
+                continue;
+            }
+            if (!shortIds.isEmpty() && hasShortIds(entity.getKey(), entity.getValue(), shortIds)) {
+                properties = (JsonObject) withShortIds(properties, shortIds);
+            }
             graph.add(properties);
         }
         jsonObjectBuilder.add("@context", "https://w3id.org/ro/crate/1.1/context");
         jsonObjectBuilder.add("@graph", graph);
+        this.graphReport = this.validation ? validate() : null;
         return jsonObjectBuilder.build();
     }
 
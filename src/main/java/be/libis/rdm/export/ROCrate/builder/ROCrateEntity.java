@@ -2,16 +2,24 @@ package be.libis.rdm.export.ROCrate.builder;
 
 import java.util.LinkedHashMap;
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.Set;
 
-import jakarta.json.Json;
 import jakarta.json.JsonArray;
 import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonBuilderFactory;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonObjectBuilder;
+import jakarta.json.spi.JsonProvider;
 
 public class ROCrateEntity {
 
+    // The JSON provider and builder factory of the exporter, looked up once:
+    // Json.createObjectBuilder() and the other Json methods look the provider up
+    // on every call, which dominates building a graph of many small entities.
+    public static final JsonProvider PROVIDER = JsonProvider.provider();
+    public static final JsonBuilderFactory BUILDER_FACTORY = PROVIDER.createBuilderFactory(Map.of());
+
     private LinkedHashMap<String, ROCrateEntityProperty> properties;
 
     public ROCrateEntity() {
@@ -23,18 +31,18 @@ public class ROCrateEntity {
     }
 
     private JsonObject asJsonObject(String key, String value) {
-        final JsonObjectBuilder jsonObjectBuilder = Json.createObjectBuilder();
+        final JsonObjectBuilder jsonObjectBuilder = BUILDER_FACTORY.createObjectBuilder();
         jsonObjectBuilder.add(key, value);
         return jsonObjectBuilder.build();
     }
 
     public JsonObject asJsonArray() {
-        final JsonObjectBuilder jsonObjectBuilder = Json.createObjectBuilder();
+        final JsonObjectBuilder jsonObjectBuilder = BUILDER_FACTORY.createObjectBuilder();
         for (final String propertyName : properties.keySet()) {
 
             final ROCrateEntityProperty property = properties.get(propertyName);
             if (property.asObjects().size() > 1) {
-                final JsonArrayBuilder jsonArrayBuilder = Json.createArrayBuilder();
+                final JsonArrayBuilder jsonArrayBuilder = BUILDER_FACTORY.createArrayBuilder();
                 for (Object propertyValue : property.asObjects()) {
                     if (propertyValue instanceof JsonArray) {
                         jsonArrayBuilder.add((JsonArray) propertyValue);
@@ -1,11 +1,20 @@
 package be.libis.rdm.export.ROCrate.builder;
 
 import java.util.ArrayList;
-import jakarta.json.Json;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import jakarta.json.JsonObjectBuilder;
 
 public class ROCrateEntityProperty {
-    public final ArrayList<String> values;
+    private final ArrayList<String> valueList;
+    // The values, read-only: they only change through add(), merge() and
+    // clearValues(), which keep valueSet up to date.
+    public final List<String> values;
+    // Lookup set for values, made once there are enough values (e.g. the
+    // hasPart of a big folder) for the linear search in add() to matter.
+    private HashSet<String> valueSet;
+    static final int VALUE_SET_THRESHOLD = 16;
     public String refersTo;
     public boolean isEmpty;
 
@@ -17,29 +26,44 @@ public class ROCrateEntityProperty {
         }
     }
 
-    public ArrayList<String> getValues() {
+    public List<String> getValues() {
         return this.values;
     }
 
     public ROCrateEntityProperty() {
-        this.values = new ArrayList<String>();
+        this.valueList = new ArrayList<String>();
+        this.values = Collections.unmodifiableList(this.valueList);
     }
 
     public ROCrateEntityProperty(String value) {
-        this.values = new ArrayList<String>();
+        this();
         this.add(value);
         }
 
     public void clearValues() {
-        this.values.clear();
+        this.valueList.clear();
+        this.valueSet = null;
+    }
+
+    boolean containsValue(final String value) {
+        if (this.valueSet == null) {
+            if (this.values.size() < VALUE_SET_THRESHOLD) {
+                return this.values.contains(value);
+            }
+            this.valueSet = new HashSet<String>(this.values);
+        }
+        return this.valueSet.contains(value);
     }
 
     public void add(final String valueToAdd) {
-        if (!valueToAdd.isEmpty() && !this.values.contains(valueToAdd)) {
-            this.values.add(valueToAdd);
+        if (!valueToAdd.isEmpty() && !containsValue(valueToAdd)) {
+            this.valueList.add(valueToAdd);
+            if (this.valueSet != null) {
+                this.valueSet.add(valueToAdd);
+            }
         }
     }
-    public void merge(ArrayList<String> values) {
+    public void merge(List<String> values) {
         for (final String valueToAdd: values) {
             this.add(valueToAdd);
         }
@@ -49,7 +73,7 @@ public class ROCrateEntityProperty {
     public Object getValue(int i) {
         String value = values.get(i);
         if (this.refersTo!=null && !this.refersTo.isEmpty()) {
-            final JsonObjectBuilder valueJsonObjectBuilder = Json.createObjectBuilder();
+            final JsonObjectBuilder valueJsonObjectBuilder = ROCrateEntity.BUILDER_FACTORY.createObjectBuilder();
             valueJsonObjectBuilder.add("@id", value);
             return valueJsonObjectBuilder.build();
         } else {
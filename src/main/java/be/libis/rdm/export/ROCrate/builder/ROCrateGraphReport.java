@@ -0,0 +1,73 @@
+package be.libis.rdm.export.ROCrate.builder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of checking the references of a built @graph: references to ids
+ * that are not in the graph (dangling) and entities that nothing refers to
+ * (orphans). References to absolute IRIs, e.g. a license URL, are not expected
+ * to be in the graph and are not reported.
+ */
+public class ROCrateGraphReport {
+
+    /**
+     * A reference from a property of an entity to an id that is not in the graph.
+     */
+    public static class DanglingReference {
+        public final String entityId;
+        public final String propertyName;
+        public final String targetId;
+
+        DanglingReference(final String entityId, final String propertyName, final String targetId) {
+            this.entityId = entityId;
+            this.propertyName = propertyName;
+            this.targetId = targetId;
+        }
+
+        @Override
+        public String toString() {
+            return entityId + " " + propertyName + " -> " + targetId;
+        }
+    }
+
+    private final int entityCount;
+    private final long referenceCount;
+    private final List<DanglingReference> danglingReferences;
+    private final List<String> orphanIds;
+
+    ROCrateGraphReport(final int entityCount, final long referenceCount,
+            final List<DanglingReference> danglingReferences, final List<String> orphanIds) {
+        this.entityCount = entityCount;
+        this.referenceCount = referenceCount;
+        this.danglingReferences = Collections.unmodifiableList(new ArrayList<DanglingReference>(danglingReferences));
+        this.orphanIds = Collections.unmodifiableList(new ArrayList<String>(orphanIds));
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    public long getReferenceCount() {
+        return referenceCount;
+    }
+
+    public List<DanglingReference> getDanglingReferences() {
+        return danglingReferences;
+    }
+
+    public List<String> getOrphanIds() {
+        return orphanIds;
+    }
+
+    public boolean isValid() {
+        return danglingReferences.isEmpty() && orphanIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "entities=" + entityCount + ", references=" + referenceCount + ", dangling=" + danglingReferences
+                + ", orphans=" + orphanIds;
+    }
+}
@@ -0,0 +1,112 @@
+package be.libis.rdm.export;
+import io.gdcc.spi.export.ExportException;
+import jakarta.json.JsonObject;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import be.libis.rdm.export.ROCrate.AsyncExports;
+import be.libis.rdm.export.ROCrate.ROCrateExporter;
+import be.libis.rdm.export.ROCrate.ROCrateGzipExporter;
+
+public class AsyncExportsTest {
+
+    @Test
+    public void testExportDatasetAsync() throws Exception {
+        JsonObject datasetJson = TestDatasets.dataset(100);
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        // shared by all exporters, so other tests may have used it
+        assertSame(AsyncExports.getShared(), exporter.getAsyncExports());
+        assertSame(exporter.getAsyncExports(), new ROCrateGzipExporter().getAsyncExports());
+        long completed = exporter.getAsyncExports().getCompletedExports();
+        long failedCount = exporter.getAsyncExports().getFailedExports();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        String fingerprint = exporter.exportDatasetAsync(ROCrateExporterTest.datasetProvider(datasetJson), output)
+                .get(1, TimeUnit.MINUTES);
+        assertEquals(ROCrateExporterTest.expectedCrate(datasetJson),
+                output.toString());
+        assertEquals(exporter.exportDatasetWithFingerprint(ROCrateExporterTest.datasetProvider(datasetJson),
+                new ByteArrayOutputStream()), fingerprint);
+
+        exporter.setCsvPath("./missing.csv");
+        CompletableFuture<String> failed = exporter.exportDatasetAsync(ROCrateExporterTest.datasetProvider(datasetJson),
+                new ByteArrayOutputStream());
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> failed.get(1, TimeUnit.MINUTES));
+        assertTrue(exception.getCause() instanceof ExportException);
+        assertEquals(completed + 1, exporter.getAsyncExports().getCompletedExports());
+        assertEquals(failedCount + 1, exporter.getAsyncExports().getFailedExports());
+    }
+
+    @Test
+    public void testLimitsParallelismAndCancels() throws Exception {
+        AsyncExports asyncExports = new AsyncExports(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Void> first = asyncExports.submit(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> second = asyncExports.submit(() -> fail("ran after being cancelled"));
+        assertEquals(1, asyncExports.getActiveExports());
+
+        // waiting for the running export, then running: both are cancelled
+        second.cancel(true);
+        first.cancel(true);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertThrows(CancellationException.class, () -> first.get());
+        assertThrows(CancellationException.class, () -> second.get());
+        assertEquals(2, asyncExports.getCancelledExports());
+
+        // the slot is free again
+        assertEquals("done", asyncExports.submit(() -> "done").get(5, TimeUnit.SECONDS));
+        assertEquals(1, asyncExports.getCompletedExports());
+        asyncExports.shutdown();
+    }
+
+    static long exportThreadCount() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("rocrate-export-")).count();
+    }
+
+    @Test
+    public void testQueuedExportsDoNotHoldThreads() throws Exception {
+        AsyncExports asyncExports = new AsyncExports(2);
+        long threadsBefore = exportThreadCount();
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int export = i;
+            futures.add(asyncExports.submit(() -> {
+                release.await();
+                return export;
+            }));
+        }
+        while (asyncExports.getActiveExports() < 2) {
+            Thread.sleep(10);
+        }
+        // two running, 48 waiting: at most one platform thread per running export
+        assertEquals(2, asyncExports.getActiveExports());
+        assertTrue(exportThreadCount() - threadsBefore <= 2);
+
+        release.countDown();
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, futures.get(i).get(1, TimeUnit.MINUTES));
+        }
+        assertEquals(50, asyncExports.getCompletedExports());
+        asyncExports.shutdown();
+    }
+}
@@ -0,0 +1,43 @@
+package be.libis.rdm.export;
+import java.nio.ByteBuffer;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import be.libis.rdm.export.ROCrate.BufferPool;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testReusesBuffersBySizeClass() {
+        BufferPool pool = new BufferPool(1024 * 1024, 4, false);
+        ByteBuffer small = pool.acquire(5000);
+        assertEquals(8 * 1024, small.capacity());
+        ByteBuffer large = pool.acquire(10 * 1024 * 1024);
+        assertEquals(1024 * 1024, large.capacity());
+        pool.release(small);
+        pool.release(large);
+        // the 1 MiB buffer does not fit next to the 8 KiB one
+        assertEquals(1, pool.getDiscardedBuffers());
+        assertEquals(8 * 1024, pool.getRetainedBytes());
+
+        assertSame(small, pool.acquire(8 * 1024));
+        assertNotSame(small, pool.acquire(8 * 1024));
+        assertEquals(4, pool.getAcquiredBuffers());
+        assertEquals(1, pool.getReusedBuffers());
+        assertEquals(0, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void testCapsBuffersPerClass() {
+        BufferPool pool = new BufferPool(1024 * 1024, 2, true);
+        ByteBuffer[] buffers = { pool.acquire(4096), pool.acquire(4096), pool.acquire(4096) };
+        assertTrue(buffers[0].isDirect());
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        assertEquals(1, pool.getDiscardedBuffers());
+        assertEquals(2 * 4096, pool.getRetainedBytes());
+        // not from a direct pool
+        pool.release(ByteBuffer.allocate(4096));
+        assertEquals(2, pool.getDiscardedBuffers());
+    }
+}
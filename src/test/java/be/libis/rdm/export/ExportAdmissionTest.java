@@ -0,0 +1,95 @@
+package be.libis.rdm.export;
+import io.gdcc.spi.export.ExportException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonValue;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import be.libis.rdm.export.ROCrate.BufferPool;
+import be.libis.rdm.export.ROCrate.ExportAdmission;
+import be.libis.rdm.export.ROCrate.ROCrateExporter;
+import be.libis.rdm.export.ROCrate.ROCrateGzipExporter;
+import be.libis.rdm.export.ROCrate.ROCrateZipExporter;
+
+public class ExportAdmissionTest {
+
+    static void awaitQueueDepth(ExportAdmission admission, int depth) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (admission.getQueueDepth() != depth && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(depth, admission.getQueueDepth());
+    }
+
+    @Test
+    public void testQueuesAndRejectsOverTheConcurrencyLimit() throws Exception {
+        ExportAdmission admission = new ExportAdmission(1, 1024 * 1024, 1, 5000);
+        ExportAdmission.Permit first = admission.acquire(1024);
+        assertEquals(1, admission.getInFlightExports());
+
+        CompletableFuture<ExportAdmission.Permit> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return admission.acquire(1024);
+            } catch (ExportException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        awaitQueueDepth(admission, 1);
+
+        // the queue is full: rejected right away
+        assertThrows(ExportException.class, () -> admission.acquire(1024));
+        assertEquals(1, admission.getRejectedExports());
+
+        first.close();
+        second.get(5, TimeUnit.SECONDS).close();
+        assertEquals(0, admission.getInFlightExports());
+        assertEquals(0, admission.getQueueDepth());
+        assertEquals(1, admission.getMaxQueueDepth());
+        assertEquals(2, admission.getAdmittedExports());
+    }
+
+    @Test
+    public void testTimesOutWaitingForMemory() throws Exception {
+        ExportAdmission admission = new ExportAdmission(4, 1024 * 1024, 4, 100);
+        try (ExportAdmission.Permit whole = admission.acquire(10L * 1024 * 1024)) {
+            // larger than the budget: takes all of it, so nothing else fits
+            assertThrows(ExportException.class, () -> admission.acquire(1024));
+        }
+        admission.acquire(1024).close();
+        assertEquals(2, admission.getAdmittedExports());
+        assertEquals(1, admission.getRejectedExports());
+        assertTrue(admission.getMaxWaitMillis() < 100);
+    }
+
+    @Test
+    public void testEstimatesFromTheDatasetJsonSize() {
+        JsonObject dataset = TestDatasets.dataset(50);
+        long bytes = ExportAdmission.getJsonBytes(dataset);
+        // the test dataset is ASCII without escapes, so the walk is exact
+        assertEquals(dataset.toString().getBytes(StandardCharsets.UTF_8).length, bytes);
+        assertEquals(2, ExportAdmission.getJsonBytes(JsonValue.EMPTY_JSON_OBJECT));
+        assertEquals(2, ExportAdmission.getJsonBytes(JsonValue.EMPTY_JSON_ARRAY));
+
+        // a dataset with large metadata and few files is estimated from its size
+        assertEquals(256 * 1024 + 50 * 4 * 1024, ExportAdmission.estimateBytes(50, 1024));
+        assertEquals(4L * 1024 * 1024, ExportAdmission.estimateBytes(1, 1024 * 1024));
+    }
+
+    @Test
+    public void testFormatsShareOneAdmission() {
+        ExportAdmission shared = new ROCrateExporter().getExportAdmission();
+        assertSame(ExportAdmission.getShared(), shared);
+        assertSame(shared, new ROCrateGzipExporter().getExportAdmission());
+        assertSame(shared, new ROCrateZipExporter().getExportAdmission());
+    }
+
+    @Test
+    public void testFormatsShareOneBufferPool() {
+        BufferPool shared = new ROCrateExporter().getBufferPool();
+        assertSame(BufferPool.getShared(), shared);
+        assertSame(shared, new ROCrateGzipExporter().getBufferPool());
+        assertSame(shared, new ROCrateZipExporter().getBufferPool());
+    }
+}
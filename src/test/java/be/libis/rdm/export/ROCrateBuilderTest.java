@@ -0,0 +1,202 @@
+package be.libis.rdm.export;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonValue;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import be.libis.rdm.export.ROCrate.CSV;
+import be.libis.rdm.export.ROCrate.ROCrateExporter;
+import be.libis.rdm.export.ROCrate.builder.ROCrateBuilder;
+import be.libis.rdm.export.ROCrate.builder.ROCrateEntity;
+import be.libis.rdm.export.ROCrate.builder.ROCrateEntityProperty;
+import be.libis.rdm.export.ROCrate.builder.ROCrateGraphReport;
+
+public class ROCrateBuilderTest {
+
+    static ROCrateEntity entity(String id, String type) {
+        ROCrateEntity entity = new ROCrateEntity();
+        entity.putProperty("@id", id);
+        entity.putProperty("@type", type);
+        return entity;
+    }
+
+    static ROCrateBuilder crate() {
+        ROCrateBuilder builder = new ROCrateBuilder();
+        ROCrateEntity metadata = entity("ro-crate-metadata.json", "CreativeWork");
+        metadata.putProperty("about", "./", "./");
+        metadata.putProperty("conformsTo", "https://w3id.org/ro/crate/1.1", "https://w3id.org/ro/crate/1.1");
+        builder.put("ro-crate-metadata.json", metadata);
+        builder.put("./", entity("./", "Dataset"));
+        return builder;
+    }
+
+    @Test
+    public void testReportsDanglingReferencesAndOrphans() {
+        ROCrateBuilder builder = crate();
+        builder.get("./").putProperty("author", "#jane", "Author");
+        builder.get("./").putProperty("license", "http://creativecommons.org/publicdomain/zero/1.0", "License");
+        builder.get("./").putProperty("hasPart", "file0.txt");
+        builder.get("./").putProperty("hasPart", "file1.txt");
+        builder.put("file0.txt", entity("file0.txt", "File"));
+        builder.put("#unused", entity("#unused", "Organization"));
+        ROCrateGraphReport report = builder.validate();
+        assertEquals(4, report.getEntityCount());
+        assertEquals(6, report.getReferenceCount());
+        // the license is an absolute IRI, so it need not be in the graph
+        List<String> dangling = new ArrayList<>();
+        for (ROCrateGraphReport.DanglingReference reference : report.getDanglingReferences()) {
+            dangling.add(reference.toString());
+        }
+        assertEquals(List.of("./ author -> #jane", "./ hasPart -> file1.txt"), dangling);
+        assertEquals(List.of("#unused"), report.getOrphanIds());
+        assertFalse(report.isValid());
+    }
+
+    @Test
+    public void testGetDoesNotCreateEntities() {
+        ROCrateBuilder builder = crate();
+        assertNull(builder.get("#jane"));
+        assertEquals(2, builder.size());
+        ROCrateEntity jane = builder.getOrCreate("#jane");
+        assertSame(jane, builder.get("#jane"));
+        assertEquals(List.of("#jane"), jane.get("@id").values);
+        assertEquals(3, builder.size());
+    }
+
+    @Test
+    public void testValidatesWhenBuilt() {
+        ROCrateBuilder builder = crate();
+        builder.get("./").putProperty("author", "#jane", "Author");
+        builder.build();
+        assertNull(builder.getGraphReport());
+
+        builder.setValidation(true);
+        builder.build();
+        assertEquals("./ author -> #jane", builder.getGraphReport().getDanglingReferences().get(0).toString());
+        builder.getOrCreate("#jane");
+        builder.build();
+        assertTrue(builder.getGraphReport().isValid(), builder.getGraphReport().toString());
+    }
+
+    @Test
+    public void testPropertyValuesOnlyChangeThroughTheProperty() {
+        ROCrateEntityProperty property = new ROCrateEntityProperty();
+        for (int i = 0; i < 40; i++) {
+            property.add("part" + i);
+        }
+        assertThrows(UnsupportedOperationException.class, () -> property.values.remove(0));
+        assertThrows(UnsupportedOperationException.class, () -> property.getValues().clear());
+        property.add("part3");
+        assertEquals(40, property.values.size());
+
+        // the lookup set is rebuilt after clearing, so old values can be added again
+        property.clearValues();
+        property.add("part3");
+        property.add("part3");
+        assertEquals(List.of("part3"), property.values);
+    }
+
+    @Test
+    public void testValidatesLargeGraphs() {
+        ROCrateBuilder builder = crate();
+        for (int i = 0; i < 100000; i++) {
+            builder.get("./").putProperty("hasPart", "file" + i + ".txt");
+            builder.put("file" + i + ".txt", entity("file" + i + ".txt", "File"));
+        }
+        ROCrateGraphReport report = builder.validate();
+        assertTrue(report.isValid(), report.toString());
+        assertEquals(100002, report.getEntityCount());
+        assertEquals(100002, report.getReferenceCount());
+    }
+
+    static List<String> getReferences(JsonValue value) {
+        // the ids of all {"@id": ...} references in value
+        List<String> references = new ArrayList<>();
+        if (value instanceof JsonArray) {
+            for (JsonValue element : (JsonArray) value) {
+                references.addAll(getReferences(element));
+            }
+        } else if (value instanceof JsonObject) {
+            JsonObject object = (JsonObject) value;
+            if (object.size() == 1 && object.containsKey("@id")) {
+                references.add(object.getString("@id"));
+            }
+            for (JsonValue member : object.values()) {
+                references.addAll(getReferences(member));
+            }
+        }
+        return references;
+    }
+
+    @Test
+    public void testCompactModeShortensLocalIds() throws Exception {
+        JsonObject datasetJson = TestDatasets.dataset(20);
+        ROCrateBuilder builder = new ROCrateBuilder();
+        ROCrateExporter.addEntity(new CSV("./dataverse2ro-crate.csv"), datasetJson.toString(), "Metadata", builder);
+        ROCrateExporter.addDataEntities(datasetJson.toString(), builder);
+        // put without properties
+        builder.put("#nothing", new ROCrateEntity());
+
+        JsonObject full = builder.build();
+        JsonObject compact = builder.build(true);
+        assertTrue(compact.toString().length() < full.toString().length());
+        assertEquals(full.getJsonArray("@graph").size() - 1, compact.getJsonArray("@graph").size());
+        Map<String, JsonObject> fullEntities = new LinkedHashMap<>();
+        for (JsonObject entity : full.getJsonArray("@graph").getValuesAs(JsonObject.class)) {
+            fullEntities.put(entity.getString("@id", ""), entity);
+        }
+        Map<String, JsonObject> compactEntities = new LinkedHashMap<>();
+        for (JsonObject entity : compact.getJsonArray("@graph").getValuesAs(JsonObject.class)) {
+            compactEntities.put(entity.getString("@id"), entity);
+        }
+        // local contextual ids are shortened, data entities and absolute IRIs are not
+        assertFalse(compactEntities.containsKey("Doe, Jane"));
+        assertEquals("Doe, Jane", compactEntities.get("#0").getString("name"));
+        assertEquals(fullEntities.get("./").getJsonArray("hasPart"), compactEntities.get("./").getJsonArray("hasPart"));
+        assertTrue(compactEntities.containsKey("ro-crate-metadata.json"));
+        assertTrue(compactEntities.containsKey("http://creativecommons.org/publicdomain/zero/1.0"));
+        for (String id : fullEntities.keySet()) {
+            if (fullEntities.get(id).getString("@type", "").equals("File")) {
+                assertEquals(fullEntities.get(id), compactEntities.get(id));
+            }
+        }
+        // every reference still resolves
+        List<String> references = getReferences(compact.getJsonArray("@graph"));
+        assertTrue(references.contains("#0"));
+        for (String reference : references) {
+            assertTrue(compactEntities.containsKey(reference) || reference.startsWith("https://w3id.org/ro/crate/"),
+                    reference);
+        }
+
+        // exports build the same compact crate
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        exporter.setCompactOutput(true);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        exporter.exportDataset(ROCrateExporterTest.datasetProvider(datasetJson), output);
+        assertEquals(ROCrateExporter.buildROCrate(new CSV("./dataverse2ro-crate.csv"), datasetJson).getJsonArray("@graph")
+                .size(), compact.getJsonArray("@graph").size());
+        assertTrue(output.toString().contains("\"author\":[{\"@id\":\"#0\"}"), output.toString());
+    }
+
+    @Test
+    public void testCompactModeKeepsExistingLocalIds() {
+        ROCrateBuilder builder = crate();
+        builder.put("#1", entity("#1", "Person"));
+        builder.put("A long local identifier", entity("A long local identifier", "Person"));
+        builder.put("A second long local identifier", entity("A second long local identifier", "Person"));
+        builder.get("./").putProperty("author", "#1", "Person");
+        builder.get("./").putProperty("author", "A long local identifier", "Person");
+        builder.get("./").putProperty("author", "A second long local identifier", "Person");
+
+        JsonObject root = builder.build(true).getJsonArray("@graph").getValuesAs(JsonObject.class).stream()
+                .filter(entity -> entity.getString("@id").equals("./")).findFirst().get();
+        // "#1" is taken, so the long ids get "#0" and "#2"
+        assertEquals(List.of("#1", "#0", "#2"), getReferences(root.getJsonArray("author")));
+    }
+}
@@ -0,0 +1,124 @@
+package be.libis.rdm.export;
+import jakarta.json.JsonObject;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import be.libis.rdm.export.ROCrate.CSV;
+import be.libis.rdm.export.ROCrate.DataEntityCollector;
+import be.libis.rdm.export.ROCrate.ROCrateExporter;
+import be.libis.rdm.export.ROCrate.builder.ROCrateBuilder;
+
+/**
+ * Benchmarks of the exporter, which print their timings instead of checking
+ * them. Surefire leaves them out; they run with mvn -Pbenchmark test. Their
+ * sizes are set with rocrate.benchmark.files, .threads and .exports.
+ */
+public class ROCrateExporterBenchmark {
+
+    @Test
+    public void benchmarkThroughputByThreadCount() throws Exception {
+        int maxThreads = Integer.getInteger("rocrate.benchmark.threads", Runtime.getRuntime().availableProcessors());
+        int exportsPerThread = Integer.getInteger("rocrate.benchmark.exports", 50);
+        int fileCount = Integer.getInteger("rocrate.benchmark.files", 1000);
+        List<JsonObject> distinct = ROCrateExporterConcurrencyTest.datasets(maxThreads, fileCount);
+        List<String> expected = ROCrateExporterConcurrencyTest.expectedOutputs(distinct);
+        // warm up
+        ROCrateExporterConcurrencyTest.runExports(ROCrateExporterConcurrencyTest.sharedExporter(maxThreads), maxThreads,
+                exportsPerThread, distinct, expected);
+
+        System.out.println("threads\texports/s\tspeedup");
+        double single = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long nanos = ROCrateExporterConcurrencyTest.runExports(ROCrateExporterConcurrencyTest.sharedExporter(threads),
+                    threads, exportsPerThread, distinct, expected);
+            double throughput = threads * exportsPerThread / (nanos / 1e9);
+            if (threads == 1) {
+                single = throughput;
+            }
+            System.out.printf("%d\t%.1f\t%.2f%n", threads, throughput, throughput / single);
+        }
+    }
+
+    @Test
+    public void benchmarkParallelSerialization() throws Exception {
+        /*
+         * Time to write one large crate on one thread and in parallel chunks.
+         */
+        JsonObject datasetJson = TestDatasets.dataset(Integer.getInteger("rocrate.benchmark.files", 100000),
+                i -> "folder" + (i % 100) + "/sub" + (i % 7));
+        JsonObject roCrate = ROCrateExporter.buildROCrate(new CSV("./dataverse2ro-crate.csv"), datasetJson);
+        ROCrateExporter sequential = new ROCrateExporter();
+        ROCrateExporter parallel = new ROCrateExporter();
+        parallel.setSerializationParallelism(2);
+        for (int round = 0; round < 5; round++) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(1 << 24);
+            long start = System.nanoTime();
+            sequential.writeROCrate(roCrate, output);
+            long sequentialNanos = System.nanoTime() - start;
+            output.reset();
+            start = System.nanoTime();
+            parallel.writeROCrate(roCrate, output);
+            long parallelNanos = System.nanoTime() - start;
+            System.out.printf("%d bytes: sequential %.1f ms, parallel %.1f ms (%.2fx)%n", output.size(),
+                    sequentialNanos / 1e6, parallelNanos / 1e6, (double) sequentialNanos / parallelNanos);
+        }
+        parallel.setSerializationParallelism(1);
+    }
+
+    @Test
+    public void benchmarkDataEntityScaling() throws Exception {
+        /*
+         * Time to build the data entities of a large dataset by number of threads.
+         */
+        JsonObject datasetJson = TestDatasets.dataset(Integer.getInteger("rocrate.benchmark.files", 500000),
+                i -> "folder" + (i % 100) + "/sub" + (i % 7));
+        List<JsonObject> files = datasetJson.getJsonObject("datasetVersion").getJsonArray("files")
+                .getValuesAs(JsonObject.class);
+        int maxThreads = Integer.getInteger("rocrate.benchmark.threads", Runtime.getRuntime().availableProcessors());
+        System.out.println("threads\tms\tspeedup");
+        double single = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                DataEntityCollector collector = pool == null ? new DataEntityCollector()
+                        : new DataEntityCollector(pool, 8192);
+                files.forEach(collector);
+                collector.getFileEntityMap();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            if (threads == 1) {
+                single = best;
+            }
+            System.out.printf("%d\t%.1f\t%.2f%n", threads, best / 1e6, single / best);
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkCompactOutput() throws Exception {
+        /*
+         * Size and build time of the normal and the compact crate of a large
+         * synthetic dataset.
+         */
+        JsonObject datasetJson = TestDatasets.dataset(Integer.getInteger("rocrate.benchmark.files", 100000),
+                i -> "folder" + (i % 100) + "/sub" + (i % 7));
+        ROCrateBuilder builder = new ROCrateBuilder();
+        ROCrateExporter.addEntity(new CSV("./dataverse2ro-crate.csv"), datasetJson.toString(), "Metadata", builder);
+        ROCrateExporter.addDataEntities(datasetJson.toString(), builder);
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            int fullLength = builder.build().toString().length();
+            long fullNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            int compactLength = builder.build(true).toString().length();
+            long compactNanos = System.nanoTime() - start;
+            System.out.printf("normal: %d chars in %.1f ms, compact: %d chars in %.1f ms%n", fullLength,
+                    fullNanos / 1e6, compactLength, compactNanos / 1e6);
+        }
+    }
+}
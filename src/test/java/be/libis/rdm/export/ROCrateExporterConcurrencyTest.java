@@ -0,0 +1,131 @@
+package be.libis.rdm.export;
+import jakarta.json.JsonObject;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import be.libis.rdm.export.ROCrate.ExportAdmission;
+import be.libis.rdm.export.ROCrate.ROCrateExporter;
+
+/**
+ * Runs exportDataset from many threads on one shared exporter, the way
+ * Dataverse uses it, and checks every output against a single-threaded export.
+ * Its throughput benchmark is in ROCrateExporterBenchmark.
+ */
+public class ROCrateExporterConcurrencyTest {
+
+    static final String CSV_PATH = "./dataverse2ro-crate.csv";
+
+    static List<JsonObject> datasets(int count, int fileCount) {
+        List<JsonObject> datasets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int variant = i;
+            datasets.add(TestDatasets.dataset(fileCount + i, f -> f % (variant + 2) == 0 ? null : "folder" + (f % 5)));
+        }
+        return datasets;
+    }
+
+    static List<String> expectedOutputs(List<JsonObject> datasets) throws Exception {
+        List<String> outputs = new ArrayList<>();
+        for (JsonObject datasetJson : datasets) {
+            outputs.add(ROCrateExporterTest.expectedCrate(CSV_PATH, datasetJson));
+        }
+        return outputs;
+    }
+
+    static ROCrateExporter sharedExporter(int threads) {
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath(CSV_PATH);
+        exporter.setExportAdmission(new ExportAdmission(threads, Long.MAX_VALUE / 2, threads, 60000));
+        return exporter;
+    }
+
+    static long runExports(ROCrateExporter exporter, int threads, int exportsPerThread, List<JsonObject> datasets,
+            List<String> expected) throws Exception {
+        /*
+         * Starts the threads together and has each export datasets in turn,
+         * checking every output. Returns the elapsed nanoseconds.
+         */
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < exportsPerThread; i++) {
+                        int dataset = (thread + i) % datasets.size();
+                        ByteArrayOutputStream output = new ByteArrayOutputStream();
+                        exporter.exportDataset(ROCrateExporterTest.datasetProvider(datasets.get(dataset)), output);
+                        assertEquals(expected.get(dataset), output.toString());
+                    }
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(5, TimeUnit.MINUTES);
+            }
+            return System.nanoTime() - begin;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentExportsOfSharedAndDistinctDatasets() throws Exception {
+        int threads = 8;
+        ROCrateExporter exporter = sharedExporter(threads);
+
+        // all threads export the same dataset
+        List<JsonObject> shared = datasets(1, 300);
+        runExports(exporter, threads, 10, shared, expectedOutputs(shared));
+
+        // each thread exports other datasets
+        List<JsonObject> distinct = datasets(threads, 300);
+        runExports(exporter, threads, 10, distinct, expectedOutputs(distinct));
+
+        assertEquals(0, exporter.getExportAdmission().getInFlightExports());
+        assertEquals(2L * threads * 10, exporter.getExportAdmission().getAdmittedExports());
+        assertEquals(0, exporter.getExportAdmission().getRejectedExports());
+    }
+
+    @Test
+    public void testConcurrentFirstUsesLoadTheMappingPlanOnce(@TempDir Path tempDir) throws Exception {
+        // a csv no export has used yet
+        Path csvPath = tempDir.resolve("dataverse2ro-crate.csv");
+        Files.copy(Path.of(CSV_PATH), csvPath);
+        int threads = 8;
+        ROCrateExporter exporter = sharedExporter(threads);
+        exporter.setCsvPath(csvPath.toString());
+        List<JsonObject> distinct = datasets(threads, 50);
+        List<String> expected = new ArrayList<>();
+        for (JsonObject datasetJson : distinct) {
+            expected.add(ROCrateExporterTest.expectedCrate(csvPath.toString(), datasetJson));
+        }
+
+        Path recordingPath = tempDir.resolve("exports.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("be.libis.rdm.export.CsvLoad").withoutThreshold();
+            recording.start();
+            runExports(exporter, threads, 1, distinct, expected);
+            recording.stop();
+            recording.dump(recordingPath);
+        }
+        assertEquals(1, RecordingFile.readAllEvents(recordingPath).stream()
+                .filter(event -> csvPath.toString().equals(event.getString("csvPath"))).count());
+    }
+}
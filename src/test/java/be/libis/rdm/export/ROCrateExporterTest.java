@@ -1,19 +1,49 @@
 package be.libis.rdm.export;
 import io.gdcc.spi.export.ExportDataProvider;
+import io.gdcc.spi.export.ExportException;
 import jakarta.json.Json;
 import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import jakarta.json.JsonReader;
+import jakarta.json.stream.JsonParser;
 import be.libis.rdm.export.ROCrate.*;
+import be.libis.rdm.export.ROCrate.builder.ROCrateBuilder;
 
 public class ROCrateExporterTest {
 
@@ -92,5 +122,813 @@ public class ROCrateExporterTest {
         assertEquals("application/json", roCrateExporter.getMediaType());
     }
 
+    static JsonObject buildFromFullDocument(CSV csv, JsonObject datasetJson) throws Exception {
+        // the mapping as it was done before the dataset was scanned with a pull parser
+        ROCrateBuilder roCrateBuilder = new ROCrateBuilder();
+        ROCrateExporter.addEntity(csv, datasetJson.toString(), "Metadata", roCrateBuilder);
+        ROCrateExporter.addDataEntities(datasetJson.toString(), roCrateBuilder);
+        return roCrateBuilder.build();
+    }
+
+    @Test
+    public void testBuildROCrateOnlyReadsReferencedJson() throws Exception {
+        CSV csv = new CSV("./dataverse2ro-crate.csv");
+        JsonObject datasetJson = TestDatasets.dataset(50);
+        assertEquals(buildFromFullDocument(csv, datasetJson), ROCrateExporter.buildROCrate(csv, datasetJson));
+
+        InputStream is = new ByteArrayInputStream(datasetJson.toString().getBytes(StandardCharsets.UTF_8));
+        try (JsonParser parser = DatasetJsonScanner.createParser(is)) {
+            assertEquals(buildFromFullDocument(csv, datasetJson), ROCrateExporter.buildROCrate(csv, parser));
+        }
+    }
+
+    @Test
+    public void testScannerStreamsFilesAndSkipsUnreferencedJson() throws Exception {
+        JsonObject datasetJson = TestDatasets.dataset(10);
+        DatasetJsonScanner scanner = new DatasetJsonScanner(
+                DatasetJsonScanner.getReferencedPaths(new CSV("./dataverse2ro-crate.csv")));
+        List<JsonObject> files = new ArrayList<>();
+        JsonObject referencedJson;
+        try (JsonParser parser = DatasetJsonScanner.createParser(datasetJson)) {
+            referencedJson = scanner.scan(parser, files::add);
+        }
+        assertEquals(datasetJson.getJsonObject("datasetVersion").getJsonArray("files"), files);
+        assertFalse(referencedJson.getJsonObject("datasetVersion").containsKey("files"));
+        assertEquals(datasetJson.getJsonObject("datasetVersion").getJsonObject("license"),
+                referencedJson.getJsonObject("datasetVersion").getJsonObject("license"));
+        assertEquals(datasetJson.getString("persistentUrl"), referencedJson.getString("persistentUrl"));
+    }
+
+    @Test
+    public void testExportDatasetsWritesEachProfile(@TempDir Path tempDir) throws Exception {
+        Path workflowCsv = tempDir.resolve("workflow-ro-crate.csv");
+        Files.writeString(workflowCsv, Files.readString(Path.of("./dataverse2ro-crate.csv"))
+                .replace(",conformsTo ,,,\"refersTo:\"\"https://w3id.org/ro/crate/1.1\"\"\"",
+                        ",conformsTo ,,,\"refersTo:\"\"https://w3id.org/workflowhub/workflow-ro-crate/1.0\"\"\""));
+        Map<String, String> profiles = new LinkedHashMap<>();
+        profiles.put("ro-crate", "./dataverse2ro-crate.csv");
+        profiles.put("workflow-ro-crate", workflowCsv.toString());
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setProfileCsvPaths(profiles);
+
+        Map<String, ByteArrayOutputStream> outputs = new LinkedHashMap<>();
+        outputs.put("ro-crate", new ByteArrayOutputStream());
+        outputs.put("workflow-ro-crate", new ByteArrayOutputStream());
+        ExportDataProvider provider = datasetProvider(TestDatasets.dataset(20));
+        Map<String, String> fingerprints = exporter.exportDatasets(provider,
+                new LinkedHashMap<String, OutputStream>(outputs));
+
+        for (String profile : profiles.keySet()) {
+            JsonObject expected = ROCrateExporter.buildROCrate(new CSV(profiles.get(profile)), provider.getDatasetJson());
+            assertEquals(expected.toString(), outputs.get(profile).toString(StandardCharsets.UTF_8));
+            assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(outputs.get(profile).toByteArray())), fingerprints.get(profile));
+        }
+        assertTrue(outputs.get("workflow-ro-crate").toString().contains("workflow-ro-crate/1.0"));
+        assertThrows(ExportException.class,
+                () -> exporter.exportDatasets(provider, Map.of("unknown", new ByteArrayOutputStream())));
+    }
+
+    static List<String> getIds(JsonObject roCrate, String type) {
+        List<String> ids = new ArrayList<>();
+        for (JsonObject entity : roCrate.getJsonArray("@graph").getValuesAs(JsonObject.class)) {
+            if (type.equals(entity.getString("@type", null)) && !entity.containsKey("subjectOf")) {
+                ids.add(entity.getString("@id"));
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void testExportDatasetDetachesFoldersOverTheCap() throws Exception {
+        JsonObject datasetJson = TestDatasets.dataset(200, i -> "folder" + (i % 4) + "/sub" + (i % 4) + "_" + (i / 4 % 2));
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        exporter.setMaxDataEntitiesPerDocument(60);
+        Map<String, JsonObject> detachedDocuments = new LinkedHashMap<>();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        exporter.exportDataset(datasetProvider(datasetJson), output, detachedDocuments::put);
+
+        JsonObject roCrate = Json.createReader(new ByteArrayInputStream(output.toByteArray())).readObject();
+        assertEquals(List.of("folder1/ro-crate-metadata.json", "folder2/ro-crate-metadata.json",
+                "folder3/ro-crate-metadata.json"), new ArrayList<>(detachedDocuments.keySet()));
+        assertTrue(roCrate.getJsonArray("@graph").size() < 60 + 10);
+
+        List<String> files = new ArrayList<>(getIds(roCrate, "File"));
+        for (JsonObject document : detachedDocuments.values()) {
+            files.addAll(getIds(document, "File"));
+            assertEquals("ro-crate-metadata.json", document.getJsonArray("@graph").getJsonObject(0).getString("@id"));
+        }
+        assertEquals(200, files.size());
+        assertEquals(200, new HashSet<>(files).size());
+        assertTrue(output.toString().contains("\"subjectOf\":{\"@id\":\"folder1/ro-crate-metadata.json\"}"));
+
+        // without a cap everything stays in one document
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        exporter.setMaxDataEntitiesPerDocument(0);
+        exporter.exportDataset(datasetProvider(datasetJson), single, detachedDocuments::put);
+        assertEquals(expectedCrate(datasetJson),
+                single.toString());
+    }
+
+    static Map<String, JsonObject> resolveEntities(URI base, JsonObject document) {
+        // the data entities and metadata documents of a document by their @id
+        // resolved against its location
+        Map<String, JsonObject> entities = new LinkedHashMap<>();
+        for (JsonObject entity : document.getJsonArray("@graph").getValuesAs(JsonObject.class)) {
+            if (List.of("File", "Dataset").contains(entity.getString("@type", ""))
+                    || entity.getString("@id").endsWith("ro-crate-metadata.json")) {
+                entities.put(base.resolve(entity.getString("@id")).toString(), entity);
+            }
+        }
+        return entities;
+    }
+
+    @Test
+    public void testDetachedDocumentIdsResolveFromTheirFolder() throws Exception {
+        JsonObject datasetJson = TestDatasets.dataset(200, i -> "folder" + (i % 4) + "/sub" + (i % 4) + "_" + (i / 4 % 2));
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        exporter.setMaxDataEntitiesPerDocument(60);
+        Map<String, JsonObject> detachedDocuments = new LinkedHashMap<>();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        exporter.exportDataset(datasetProvider(datasetJson), output, detachedDocuments::put);
+
+        URI root = URI.create("http://example.org/crate/");
+        Map<String, JsonObject> resolved = resolveEntities(root,
+                Json.createReader(new ByteArrayInputStream(output.toByteArray())).readObject());
+        Map<String, JsonObject> folders = new LinkedHashMap<>();
+        for (Map.Entry<String, JsonObject> document : detachedDocuments.entrySet()) {
+            URI base = root.resolve(document.getKey());
+            Map<String, JsonObject> entities = resolveEntities(base, document.getValue());
+            // the folder is the root of its document
+            JsonObject metadata = entities.get(base.toString());
+            assertEquals("./", metadata.getJsonObject("about").getString("@id"));
+            JsonObject folder = entities.get(base.resolve("./").toString());
+            assertEquals("Dataset", folder.getString("@type"));
+            folders.put(base.resolve("./").toString(), folder);
+            for (Map.Entry<String, JsonObject> entity : entities.entrySet()) {
+                if (!entity.getKey().equals(base.toString())) {
+                    resolved.put(entity.getKey(), entity.getValue());
+                }
+            }
+        }
+        assertEquals(List.of(root + "folder1/", root + "folder2/", root + "folder3/"),
+                new ArrayList<>(folders.keySet()));
+
+        // every file resolves to the same place as in a single document
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        exporter.setMaxDataEntitiesPerDocument(0);
+        exporter.exportDataset(datasetProvider(datasetJson), single);
+        Map<String, JsonObject> expected = resolveEntities(root,
+                Json.createReader(new ByteArrayInputStream(single.toByteArray())).readObject());
+        for (Map.Entry<String, JsonObject> entity : expected.entrySet()) {
+            if (entity.getValue().getString("@type", "").equals("File")) {
+                assertTrue(resolved.containsKey(entity.getKey()), entity.getKey() + " does not resolve");
+            }
+        }
+        // and every part of a detached folder resolves to an entity
+        for (Map.Entry<String, JsonObject> folder : folders.entrySet()) {
+            for (JsonValue part : folder.getValue().getJsonArray("hasPart")) {
+                String partId = URI.create(folder.getKey()).resolve(((JsonString) part).getString()).toString();
+                assertTrue(resolved.containsKey(partId), partId + " does not resolve");
+            }
+        }
+    }
+
+    @Test
+    public void testParallelDataEntitiesMatchSequential() throws Exception {
+        JsonObject datasetJson = TestDatasets.dataset(1000, i -> i % 5 == 0 ? null : "folder" + (i % 7) + "/sub" + (i % 3));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // small chunks, so folders are spread over many partial trees
+            DataEntityCollector sequential = new DataEntityCollector();
+            DataEntityCollector parallel = new DataEntityCollector(pool, 7);
+            for (JsonValue file : datasetJson.getJsonObject("datasetVersion").getJsonArray("files")) {
+                sequential.accept(file.asJsonObject());
+                parallel.accept(file.asJsonObject());
+            }
+            assertEquals(new ArrayList<>(sequential.getFileEntityMap().entrySet()),
+                    new ArrayList<>(parallel.getFileEntityMap().entrySet()));
+
+            ROCrateExporter exporter = new ROCrateExporter();
+            exporter.setCsvPath("./dataverse2ro-crate.csv");
+            exporter.setDataEntityParallelism(4);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            exporter.exportDataset(datasetProvider(datasetJson), output);
+            assertEquals(expectedCrate(datasetJson),
+                    output.toString());
+            exporter.setDataEntityParallelism(1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancelDropsPendingChunks() throws Exception {
+        JsonObject datasetJson = TestDatasets.dataset(10, i -> "folder" + (i % 2));
+        ForkJoinPool pool = new ForkJoinPool(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // the only thread is busy, so the chunks wait in the queue
+            pool.submit(() -> {
+                release.await();
+                return null;
+            });
+            DataEntityCollector collector = new DataEntityCollector(pool, 2);
+            for (JsonValue file : datasetJson.getJsonObject("datasetVersion").getJsonArray("files")) {
+                collector.accept(file.asJsonObject());
+            }
+            collector.cancel();
+            release.countDown();
+            assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS));
+            assertEquals(10, collector.getFileCount());
+            assertTrue(collector.getFileEntityMap().isEmpty());
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelSerializationMatchesSequential() throws Exception {
+        // more entities than one chunk, with multi-byte and surrogate pair characters
+        JsonObject datasetJson = TestDatasets.dataset(5000,
+                i -> i % 4 == 0 ? null : "donn\u00e9es" + (i % 9) + "/\ud83d\udcc1" + (i % 2));
+        JsonObject roCrate = ROCrateExporter.buildROCrate(new CSV("./dataverse2ro-crate.csv"), datasetJson);
+        byte[] expected = roCrate.toString().getBytes(StandardCharsets.UTF_8);
+
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        exporter.setSerializationParallelism(4);
+        try {
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            exporter.writeROCrate(roCrate, written);
+            assertArrayEquals(expected, written.toByteArray());
+
+            ByteArrayOutputStream exported = new ByteArrayOutputStream();
+            exporter.exportDataset(datasetProvider(datasetJson), exported);
+            assertArrayEquals(expected, exported.toByteArray());
+        } finally {
+            exporter.setSerializationParallelism(1);
+        }
+    }
+
+    @Test
+    public void testFingerprintIsTheDigestOfTheCrate() throws Exception {
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        String fingerprint = exporter.exportDatasetWithFingerprint(datasetProvider(TestDatasets.dataset(3000)), output);
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(output.toByteArray())),
+                fingerprint);
+
+        // the same dataset, built again and exported with the parallel stages
+        ROCrateExporter parallelExporter = new ROCrateExporter();
+        parallelExporter.setCsvPath("./dataverse2ro-crate.csv");
+        parallelExporter.setDataEntityParallelism(4);
+        parallelExporter.setSerializationParallelism(4);
+        try {
+            assertEquals(fingerprint, parallelExporter.exportDatasetWithFingerprint(
+                    datasetProvider(TestDatasets.dataset(3000)), new ByteArrayOutputStream()));
+        } finally {
+            parallelExporter.setDataEntityParallelism(1);
+            parallelExporter.setSerializationParallelism(1);
+        }
+        assertNotEquals(fingerprint, exporter.exportDatasetWithFingerprint(datasetProvider(TestDatasets.dataset(3001)),
+                new ByteArrayOutputStream()));
+
+        // the fingerprint is of the crate, not of its encoding
+        ROCrateGzipExporter gzipExporter = new ROCrateGzipExporter();
+        gzipExporter.setCsvPath("./dataverse2ro-crate.csv");
+        assertEquals(fingerprint, gzipExporter.exportDatasetWithFingerprint(datasetProvider(TestDatasets.dataset(3000)),
+                new ByteArrayOutputStream()));
+    }
+
+    static String sha256(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+
+    static String manifestDigest(Map<String, byte[]> documents) throws Exception {
+        // what sha256sum prints for the documents, sorted by path, and its SHA-256
+        StringBuilder manifest = new StringBuilder();
+        for (String path : new TreeSet<>(documents.keySet())) {
+            manifest.append(sha256(documents.get(path))).append("  ").append(path).append('\n');
+        }
+        return sha256(manifest.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFingerprintCoversEveryWrittenDocument(@TempDir Path tempDir) throws Exception {
+        // detached documents written by the exporter
+        JsonObject datasetJson = TestDatasets.dataset(200, i -> "folder" + (i % 4) + "/sub" + (i % 4) + "_" + (i / 4 % 2));
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        exporter.setMaxDataEntitiesPerDocument(60);
+        exporter.setDetachedDocumentDirectory(tempDir.resolve("detached").toString());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        String fingerprint = exporter.exportDatasetWithFingerprint(datasetProvider(datasetJson), output);
+        Path datasetDirectory = tempDir.resolve("detached").resolve("FK2_ABCDEF");
+        Map<String, byte[]> documents = new LinkedHashMap<>();
+        documents.put("ro-crate-metadata.json", output.toByteArray());
+        for (String folder : List.of("folder1/", "folder2/", "folder3/")) {
+            documents.put(folder + "ro-crate-metadata.json",
+                    Files.readAllBytes(datasetDirectory.resolve(folder + "ro-crate-metadata.json")));
+        }
+        assertEquals(manifestDigest(documents), fingerprint);
+        assertNotEquals(sha256(output.toByteArray()), fingerprint);
+
+        // the data files of a ZIP package
+        JsonObject zipDatasetJson = TestDatasets.dataset(4, i -> i % 2 == 0 ? null : "data");
+        Path datasetStorage = Files.createDirectories(tempDir.resolve("storage/10.5072/FK2/ABCDEF"));
+        for (int i = 0; i < 4; i++) {
+            Files.writeString(datasetStorage.resolve("18b3c0ffee" + i), "content of file " + i);
+        }
+        ROCrateZipExporter zipExporter = new ROCrateZipExporter();
+        zipExporter.setCsvPath("./dataverse2ro-crate.csv");
+        zipExporter.setStorageRoot(tempDir.resolve("storage").toString());
+        ByteArrayOutputStream zipOutput = new ByteArrayOutputStream();
+        String zipFingerprint = zipExporter.exportDatasetWithFingerprint(datasetProvider(zipDatasetJson), zipOutput);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(zipOutput.toByteArray()))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entries.put(entry.getName(), zip.readAllBytes());
+            }
+        }
+        assertEquals(5, entries.size());
+        assertEquals(manifestDigest(entries), zipFingerprint);
+
+        // a changed data file changes the fingerprint, an unchanged package keeps it
+        assertEquals(zipFingerprint, zipExporter.exportDatasetWithFingerprint(datasetProvider(zipDatasetJson),
+                new ByteArrayOutputStream()));
+        Files.writeString(datasetStorage.resolve("18b3c0ffee1"), "changed content");
+        assertNotEquals(zipFingerprint, zipExporter.exportDatasetWithFingerprint(datasetProvider(zipDatasetJson),
+                new ByteArrayOutputStream()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testHasPartListStaysConsistentWhenChanged() {
+        Map<String, LinkedHashMap<String, Object>> fileEntityMap = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            ROCrateExporter.addDataEntity("file" + i + ".txt", null, fileEntityMap);
+        }
+        List<String> hasPart = (List<String>) fileEntityMap.get("./").get("hasPart");
+        assertEquals(50, hasPart.size());
+        assertTrue(hasPart.contains("file7.txt"));
+
+        hasPart.remove("file7.txt");
+        hasPart.set(0, "renamed.txt");
+        hasPart.removeIf(part -> part.startsWith("file4"));
+        hasPart.subList(0, 2).clear();
+        hasPart.add(0, "first.txt");
+        assertFalse(hasPart.contains("file7.txt"));
+        assertFalse(hasPart.contains("file0.txt"));
+        assertFalse(hasPart.contains("renamed.txt"));
+        assertFalse(hasPart.contains("file42.txt"));
+        assertTrue(hasPart.contains("first.txt"));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(new ArrayList<>(hasPart).contains("file" + i + ".txt"), hasPart.contains("file" + i + ".txt"));
+        }
+
+        // a part that is in the list twice is still there after removing one
+        hasPart.add("first.txt");
+        hasPart.remove(0);
+        assertTrue(hasPart.contains("first.txt"));
+        hasPart.clear();
+        assertFalse(hasPart.contains("first.txt"));
+    }
+
+    @Test
+    public void testGzipExporterCompressesTheSameCrate() throws Exception {
+        JsonObject datasetJson = TestDatasets.dataset(500);
+        ROCrateGzipExporter gzipExporter = new ROCrateGzipExporter();
+        gzipExporter.setCsvPath("./dataverse2ro-crate.csv");
+        assertEquals("rocrate_json_gz", gzipExporter.getFormatName());
+        assertEquals("application/gzip", gzipExporter.getMediaType());
+
+        // the caller's stream must stay open after the export
+        ByteArrayOutputStream output = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                fail("the output stream was closed");
+            }
+        };
+        gzipExporter.exportDataset(datasetProvider(datasetJson), output);
+        String crate = new String(new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())).readAllBytes(),
+                StandardCharsets.UTF_8);
+        assertEquals(expectedCrate(datasetJson), crate);
+        assertTrue(output.size() * 5 < crate.length());
+    }
+
+    @Test
+    public void testZipExporterPackagesFilesInHasPartOrder(@TempDir Path storageRoot) throws Exception {
+        JsonObject datasetJson = TestDatasets.dataset(6, i -> i % 3 == 0 ? null : i % 3 == 1 ? "data" : "data/raw");
+        Path datasetStorage = Files.createDirectories(storageRoot.resolve("10.5072/FK2/ABCDEF"));
+        for (int i = 0; i < 6; i++) {
+            // file5 is not in the local storage
+            if (i != 5) {
+                Files.writeString(datasetStorage.resolve("18b3c0ffee" + i), "content of file " + i);
+            }
+        }
+        ROCrateZipExporter zipExporter = new ROCrateZipExporter();
+        zipExporter.setCsvPath("./dataverse2ro-crate.csv");
+        zipExporter.setStorageRoot(storageRoot.toString());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        zipExporter.exportDataset(datasetProvider(datasetJson), output);
+
+        List<String> entryNames = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entryNames.add(entry.getName());
+                String content = new String(zip.readAllBytes(), StandardCharsets.UTF_8);
+                if (entry.getName().equals("ro-crate-metadata.json")) {
+                    // the package has path ids
+                    assertTrue(content.contains("{\"@id\":\"data/raw/\",\"@type\":\"Dataset\","
+                            + "\"hasPart\":[\"data/raw/file2.txt\",\"data/raw/file5.txt\"]}"), content);
+                } else {
+                    String label = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+                    assertEquals("content of file " + label.replaceAll("\\D", ""), content);
+                }
+            }
+        }
+        // "./" has file0, data/, file3; data/ has file1, raw/, file4; raw/ has file2
+        assertEquals(List.of("ro-crate-metadata.json", "file0.txt", "data/file1.txt", "data/raw/file2.txt",
+                "data/file4.txt", "file3.txt"), entryNames);
+    }
+
+    @Test
+    public void testZipExporterEntriesResolveEveryFileId(@TempDir Path storageRoot) throws Exception {
+        // folders with the same name in different places: a/raw and b/raw
+        JsonObject datasetJson = TestDatasets.dataset(8, i -> i % 4 == 0 ? null : i % 4 == 1 ? "a/raw" : i % 4 == 2 ? "b/raw" : "b");
+        Path datasetStorage = Files.createDirectories(storageRoot.resolve("10.5072/FK2/ABCDEF"));
+        for (int i = 0; i < 8; i++) {
+            Files.writeString(datasetStorage.resolve("18b3c0ffee" + i), "content of file " + i);
+        }
+        ROCrateZipExporter zipExporter = new ROCrateZipExporter();
+        zipExporter.setCsvPath("./dataverse2ro-crate.csv");
+        zipExporter.setStorageRoot(storageRoot.toString());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        zipExporter.exportDataset(datasetProvider(datasetJson), output);
+
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entries.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        JsonObject metadata = Json.createReader(new StringReader(entries.get("ro-crate-metadata.json")))
+                .readObject();
+        Map<String, JsonObject> entities = new LinkedHashMap<>();
+        for (JsonObject entity : metadata.getJsonArray("@graph").getValuesAs(JsonObject.class)) {
+            entities.put(entity.getString("@id"), entity);
+        }
+        List<String> fileIds = new ArrayList<>();
+        for (JsonObject entity : entities.values()) {
+            if (entity.getString("@type", "").equals("File")) {
+                fileIds.add(entity.getString("@id"));
+            }
+        }
+        assertEquals(8, fileIds.size());
+        for (String fileId : fileIds) {
+            assertTrue(entries.containsKey(fileId), fileId + " is not in the package");
+        }
+        for (String entryName : entries.keySet()) {
+            if (!entryName.equals("ro-crate-metadata.json")) {
+                assertTrue(fileIds.contains(entryName), entryName + " has no File entity");
+            }
+        }
+        assertEquals("content of file 1", entries.get("a/raw/file1.txt"));
+        assertEquals("content of file 2", entries.get("b/raw/file2.txt"));
+        // each raw folder only has its own files
+        assertEquals(Json.createArrayBuilder().add("a/raw/file1.txt").add("a/raw/file5.txt").build(),
+                entities.get("a/raw/").getJsonArray("hasPart"));
+        assertEquals(Json.createArrayBuilder().add("b/raw/file2.txt").add("b/raw/file6.txt").build(),
+                entities.get("b/raw/").getJsonArray("hasPart"));
+
+        // rocrate_json keeps identifying files by label and folders by name
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        exporter.exportDataset(datasetProvider(datasetJson), json);
+        assertTrue(json.toString().contains("{\"@id\":\"raw/\",\"@type\":\"Dataset\",\"hasPart\":[\"file1.txt\","
+                + "\"file2.txt\",\"file5.txt\",\"file6.txt\"]}"), json.toString());
+    }
+
+    @Test
+    public void testExportEncodesIntoPooledBuffers() throws Exception {
+        // labels with accents and surrogate pairs, over several buffers
+        JsonObject datasetJson = TestDatasets.dataset(3000, i -> "donn\u00e9es/\ud83d\ude00" + (i % 50));
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        exporter.setBufferPool(new BufferPool(1024 * 1024, 4, false));
+        byte[] expected = expectedCrate(datasetJson)
+                .getBytes(StandardCharsets.UTF_8);
+        assertTrue(expected.length > 2 * 64 * 1024);
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            exporter.exportDataset(datasetProvider(datasetJson), output);
+            assertArrayEquals(expected, output.toByteArray());
+        }
+        assertEquals(3, exporter.getBufferPool().getAcquiredBuffers());
+        assertEquals(2, exporter.getBufferPool().getReusedBuffers());
+        assertEquals(64 * 1024, exporter.getBufferPool().getAllocatedBytes());
+    }
+
+    @Test
+    public void testRecordsFlightRecorderEvents(@TempDir Path tempDir) throws Exception {
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        Path recordingPath = tempDir.resolve("export.jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : List.of("Export", "CsvLoad", "DatasetParse", "EntityResolution", "DataEntities",
+                    "Serialization")) {
+                recording.enable("be.libis.rdm.export." + name).withoutThreshold();
+            }
+            recording.start();
+            exporter.exportDataset(datasetProvider(TestDatasets.dataset(50)), new ByteArrayOutputStream());
+            recording.stop();
+            recording.dump(recordingPath);
+        }
+        Map<String, List<RecordedEvent>> events = new LinkedHashMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(recordingPath)) {
+            events.computeIfAbsent(event.getEventType().getName().replace("be.libis.rdm.export.", ""),
+                    k -> new ArrayList<>()).add(event);
+        }
+        RecordedEvent export = events.get("Export").get(0);
+        assertEquals("rocrate_json", export.getString("formatName"));
+        assertEquals("FK2/ABCDEF", export.getString("datasetIdentifier"));
+        assertEquals(50, export.getInt("fileCount"));
+        assertEquals(ExportAdmission.getJsonBytes(TestDatasets.dataset(50)), export.getLong("datasetJsonBytes"));
+        assertEquals(50, events.get("DatasetParse").get(0).getInt("fileCount"));
+        // the files, "./", "data/" and four "raw" folders
+        assertEquals(56, events.get("DataEntities").get(0).getInt("dataEntityCount"));
+        assertTrue(events.get("EntityResolution").stream().anyMatch(e -> e.getString("entityName").equals("Author")));
+        assertTrue(events.get("Serialization").get(0).getLong("bytes") > 0);
+    }
+
+    @Test
+    public void testFlightRecorderEventsAreOffUnderDefaultSettings(@TempDir Path tempDir) throws Exception {
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        Path recordingPath = tempDir.resolve("default.jfr");
+        try (Recording recording = new Recording(Configuration.getConfiguration("default"))) {
+            recording.start();
+            exporter.exportDataset(datasetProvider(TestDatasets.dataset(5)), new ByteArrayOutputStream());
+            recording.stop();
+            recording.dump(recordingPath);
+        }
+        assertTrue(RecordingFile.readAllEvents(recordingPath).stream()
+                .noneMatch(e -> e.getEventType().getName().startsWith("be.libis.rdm.export.")));
+    }
+
+    static final String SNAPSHOT_DIRECTORY = "rocrate.export.snapshotDirectory";
+
+    static String setSnapshotDirectory(Path snapshotDirectory) {
+        // returns the previous value, to restore with restoreSnapshotDirectory
+        String previous = System.getProperty(SNAPSHOT_DIRECTORY);
+        System.setProperty(SNAPSHOT_DIRECTORY, snapshotDirectory.toString());
+        return previous;
+    }
+
+    static void restoreSnapshotDirectory(String previous) {
+        if (previous == null) {
+            System.clearProperty(SNAPSHOT_DIRECTORY);
+        } else {
+            System.setProperty(SNAPSHOT_DIRECTORY, previous);
+        }
+    }
+
+    @Test
+    public void testMappingPlanSnapshot(@TempDir Path tempDir) throws Exception {
+        Path csvPath = tempDir.resolve("dataverse2ro-crate.csv");
+        Files.copy(Path.of("./dataverse2ro-crate.csv"), csvPath);
+        String previous = setSnapshotDirectory(tempDir.resolve("snapshots"));
+        try {
+            MappingPlan plan = MappingPlan.load(csvPath.toString());
+            assertFalse(plan.isFromSnapshot());
+            Path snapshotPath = MappingPlan.getSnapshotPath(csvPath.toString());
+            assertEquals(tempDir.resolve("snapshots"), snapshotPath.getParent());
+            assertTrue(Files.isRegularFile(snapshotPath));
+            assertFalse(Files.exists(Path.of(csvPath + ".snapshot")));
+
+            MappingPlan snapshotPlan = MappingPlan.load(csvPath.toString());
+            assertTrue(snapshotPlan.isFromSnapshot());
+            CSV csv = new CSV(csvPath.toString());
+            assertEquals(plan.getReferencedPaths(), snapshotPlan.getReferencedPaths());
+            assertEquals(plan.getJsonPathStrings(), snapshotPlan.getJsonPathStrings());
+            for (String entityName : csv.getEntityNames()) {
+                assertEquals(csv.getRowsByEntity(entityName), snapshotPlan.getCsv().getRowsByEntity(entityName));
+                for (int i = 0; i < csv.getRowsByEntity(entityName).size(); i++) {
+                    // the same column order as the csv
+                    assertEquals(new ArrayList<>(csv.getRowsByEntity(entityName).get(i).keySet()),
+                            new ArrayList<>(snapshotPlan.getCsv().getRowsByEntity(entityName).get(i).keySet()));
+                }
+            }
+
+            // a snapshot of another build of the exporter is not used
+            byte[] snapshot = Files.readAllBytes(snapshotPath);
+            // the first character of the code version, after the magic and its length
+            snapshot[6] = 'x';
+            Files.write(snapshotPath, snapshot);
+            assertFalse(MappingPlan.load(csvPath.toString()).isFromSnapshot());
+            assertTrue(MappingPlan.load(csvPath.toString()).isFromSnapshot());
+
+            // a changed csv is read again instead of taken from the snapshot
+            ROCrateExporter exporter = new ROCrateExporter();
+            exporter.setCsvPath(csvPath.toString());
+            ByteArrayOutputStream before = new ByteArrayOutputStream();
+            exporter.exportDataset(datasetProvider(TestDatasets.dataset(3)), before);
+            Files.writeString(csvPath, Files.readString(csvPath).replace("\"\"\"Person\"\"\"", "\"\"\"Agent\"\"\""));
+            assertFalse(MappingPlan.load(csvPath.toString()).isFromSnapshot());
+            ByteArrayOutputStream after = new ByteArrayOutputStream();
+            exporter.exportDataset(datasetProvider(TestDatasets.dataset(3)), after);
+            assertFalse(before.toString().contains("\"Agent\""));
+            assertTrue(after.toString().contains("\"Agent\""));
+        } finally {
+            restoreSnapshotDirectory(previous);
+        }
+    }
+
+    @Test
+    public void testFailedSnapshotLeavesNoTemporaryFile(@TempDir Path tempDir) throws Exception {
+        Path csvPath = tempDir.resolve("dataverse2ro-crate.csv");
+        Files.copy(Path.of("./dataverse2ro-crate.csv"), csvPath);
+        String previous = setSnapshotDirectory(tempDir.resolve("snapshots"));
+        try {
+            // a non-empty directory where the snapshot goes, so moving it there fails
+            Path snapshotPath = MappingPlan.getSnapshotPath(csvPath.toString());
+            Files.createDirectories(snapshotPath);
+            Files.writeString(snapshotPath.resolve("keep"), "");
+
+            MappingPlan plan = MappingPlan.load(csvPath.toString());
+            assertNotNull(plan.getCsv());
+            try (var files = Files.list(snapshotPath.getParent())) {
+                assertEquals(List.of(snapshotPath.getFileName().toString()),
+                        files.map(file -> file.getFileName().toString()).sorted().toList());
+            }
+        } finally {
+            restoreSnapshotDirectory(previous);
+        }
+    }
+
+    static JsonObject getReportRow(JsonObject report, String entityName, String targetPropertyName) {
+        for (JsonObject row : report.getJsonArray("rows").getValuesAs(JsonObject.class)) {
+            if (row.getString("entityName").equals(entityName) && row.getString("targetPropertyName").equals(targetPropertyName)) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testExplainDatasetReportsCostPerRow() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ExportDataProvider provider = datasetProvider(TestDatasets.dataset(5));
+        JsonObject report = roCrateExporter.explainDataset(provider, output);
+
+        CSV csv = new CSV("./dataverse2ro-crate.csv");
+        assertEquals(ROCrateExporter.buildROCrate(csv, provider.getDatasetJson()).toString(), output.toString());
+        int rowCount = 0;
+        for (String entityName : csv.getEntityNames()) {
+            rowCount += csv.getRowsByEntity(entityName).size();
+        }
+        assertEquals(rowCount, report.getJsonArray("rows").size());
+
+        JsonObject authorName = getReportRow(report, "Author", "name");
+        assertEquals(2, authorName.getInt("evaluations"));
+        assertEquals(2, authorName.getInt("values"));
+        assertEquals(2, authorName.getInt("maxRefersToDepth"));
+        assertEquals(3, getReportRow(report, "AuthorAffiliation", "@type").getInt("maxRefersToDepth"));
+        assertEquals(1, getReportRow(report, "Root", "name").getInt("jsonPathLookups"));
+        assertEquals(2, getReportRow(report, "Root", "keywords").getInt("values"));
+        assertEquals(0, report.getJsonArray("danglingReferences").size());
+        assertEquals(0, report.getJsonArray("orphanIds").size());
+    }
+
+    @Test
+    public void testExplainDatasetChargesEachRowOfAProperty(@TempDir Path tempDir) throws Exception {
+        // a second row for the name of the authors
+        List<String> lines = new ArrayList<>(Files.readAllLines(Path.of("./dataverse2ro-crate.csv")));
+        lines.add(lines.indexOf(",name,,,authorName") + 1, ",name,,,\"\"\"Anonymous\"\"\"");
+        Path csvPath = tempDir.resolve("names.csv");
+        Files.write(csvPath, lines);
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath(csvPath.toString());
 
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JsonObject report = exporter.explainDataset(datasetProvider(TestDatasets.dataset(5)), output);
+        assertTrue(output.toString().contains("\"Anonymous\""));
+        List<JsonObject> nameRows = new ArrayList<>();
+        for (JsonObject row : report.getJsonArray("rows").getValuesAs(JsonObject.class)) {
+            if (row.getString("entityName").equals("Author") && row.getString("targetPropertyName").equals("name")) {
+                nameRows.add(row);
+            }
+        }
+        assertEquals(2, nameRows.size());
+        for (JsonObject nameRow : nameRows) {
+            assertEquals(2, nameRow.getInt("evaluations"));
+            assertEquals(2, nameRow.getInt("values"));
+        }
+    }
+
+    @Test
+    public void testGraphValidationFailsExportsWithDanglingReferences(@TempDir Path tempDir) throws Exception {
+        // the root refers to "#missing", which no row of the csv makes
+        List<String> lines = new ArrayList<>(Files.readAllLines(Path.of("./dataverse2ro-crate.csv")));
+        lines.add(lines.indexOf("Root,,,,") + 1, ",mentions,,,\"refersTo:\"\"#missing\"\"\"");
+        Path csvPath = tempDir.resolve("dangling.csv");
+        Files.write(csvPath, lines);
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath(csvPath.toString());
+        ExportDataProvider provider = datasetProvider(TestDatasets.dataset(5));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        exporter.exportDataset(provider, output);
+        assertTrue(output.toString().contains("\"mentions\":{\"@id\":\"#missing\"}"));
+
+        exporter.setGraphValidation(true);
+        ExportException exception = assertThrows(ExportException.class,
+                () -> exporter.exportDataset(provider, new ByteArrayOutputStream()));
+        assertTrue(exception.getMessage().contains("1 dangling references: [./ mentions -> #missing]"),
+                exception.getMessage());
+
+        exporter.setCsvPath("./dataverse2ro-crate.csv");
+        exporter.exportDataset(provider, new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void testMappingWithoutDatasetVersionPaths(@TempDir Path tempDir) throws Exception {
+        // only top-level fields, so the dataset JSON read for it has no datasetVersion
+        Path csvPath = tempDir.resolve("top-level.csv");
+        Files.write(csvPath, List.of("entityName,targetPropertyName,source,sourceField,value",
+                "Metadata,,,,",
+                ",__id,,,\"\"\"ro-crate-metadata.json\"\"\"",
+                ",__type,,,\"\"\"CreativeWork\"\"\"",
+                ",about,,,refersTo:Root",
+                "Root,,,,",
+                ",__id,,,\"\"\"./\"\"\"",
+                ",__type,,,\"\"\"Dataset\"\"\"",
+                ",identifier,,persistentUrl,",
+                ",publisher,,publisher,"));
+        ROCrateExporter exporter = new ROCrateExporter();
+        exporter.setCsvPath(csvPath.toString());
+        JsonObject datasetJson = TestDatasets.dataset(3);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        exporter.exportDataset(datasetProvider(datasetJson), output);
+        assertEquals(expectedCrate(csvPath.toString(), datasetJson), output.toString());
+        JsonObject root = Json.createReader(new StringReader(output.toString())).readObject().getJsonArray("@graph")
+                .getValuesAs(JsonObject.class).stream().filter(entity -> entity.getString("@id").equals("./"))
+                .findFirst().orElseThrow();
+        assertEquals("https://doi.org/10.5072/FK2/ABCDEF", root.getString("identifier"));
+        assertEquals("Demo Dataverse", root.getString("publisher"));
+
+        // the root of a path is decided by its first key, not by the text of the JSON
+        assertEquals("Demo Dataverse", ROCrateExporter.readAndUnpackJsonPath("{\"publisher\":\"Demo Dataverse\"}", "$.publisher"));
+        String author = "{\"authorName\":{\"typeName\":\"authorName\",\"value\":\"datasetVersion\"}}";
+        assertEquals(Map.of("typeName", "authorName", "value", "datasetVersion"), ((Map<?, ?>) ROCrateExporter.readAndUnpackJsonPath(author,
+                "$.datasetVersion.metadataBlocks.citation.fields[?(@.typeName=='author')].value")).get("authorName"));
+    }
+
+    static String expectedCrate(JsonObject datasetJson) throws Exception {
+        return expectedCrate("./dataverse2ro-crate.csv", datasetJson);
+    }
+
+    static String expectedCrate(String csvPath, JsonObject datasetJson) throws Exception {
+        /*
+         * The crate of the dataset as buildROCrate makes it in memory, which every
+         * export of it has to write.
+         */
+        return ROCrateExporter.buildROCrate(new CSV(csvPath), datasetJson).toString();
+    }
+
+    static ExportDataProvider datasetProvider(JsonObject datasetJson) {
+        return new ExportDataProvider() {
+            @Override
+            public JsonObject getDatasetJson() {
+                return datasetJson;
+            }
+
+            @Override
+            public JsonObject getDatasetORE() {
+                return Json.createObjectBuilder().build();
+            }
+
+            @Override
+            public JsonArray getDatasetFileDetails() {
+                return Json.createArrayBuilder().build();
+            }
+
+            @Override
+            public JsonObject getDatasetSchemaDotOrg() {
+                return Json.createObjectBuilder().build();
+            }
+
+            @Override
+            public String getDataCiteXml() {
+                return null;
+            }
+        };
+    }
 }
@@ -0,0 +1,117 @@
+package be.libis.rdm.export;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import java.util.function.IntFunction;
+
+/**
+ * Builds synthetic datasets shaped like the Dataverse dataset JSON export, so
+ * tests do not depend on a real Dataverse installation.
+ */
+public class TestDatasets {
+
+    static JsonObjectBuilder primitive(String typeName, String value) {
+        return Json.createObjectBuilder()
+                .add("typeName", typeName)
+                .add("multiple", false)
+                .add("typeClass", "primitive")
+                .add("value", value);
+    }
+
+    static JsonObjectBuilder compound(String typeName, JsonArrayBuilder values) {
+        return Json.createObjectBuilder()
+                .add("typeName", typeName)
+                .add("multiple", true)
+                .add("typeClass", "compound")
+                .add("value", values);
+    }
+
+    public static JsonObject dataset(int fileCount) {
+        /*
+         * A dataset with a citation block and fileCount files spread over a few
+         * nested folders.
+         */
+        return dataset(fileCount, i -> i % 3 == 1 ? "data" : i % 3 == 2 ? "data/raw" + (i % 4) : null);
+    }
+
+    public static JsonObject dataset(int fileCount, IntFunction<String> directoryLabel) {
+        /*
+         * A dataset with a citation block and fileCount files, the directory label
+         * of the i-th file given by directoryLabel (null for none).
+         */
+        JsonArrayBuilder fields = Json.createArrayBuilder()
+                .add(primitive("title", "Synthetic dataset"))
+                .add(compound("author", Json.createArrayBuilder()
+                        .add(Json.createObjectBuilder()
+                                .add("authorName", primitive("authorName", "Doe, Jane"))
+                                .add("authorAffiliation", primitive("authorAffiliation", "KU Leuven")))
+                        .add(Json.createObjectBuilder()
+                                .add("authorName", primitive("authorName", "Roe, Richard"))
+                                .add("authorAffiliation", primitive("authorAffiliation", "LIBIS")))))
+                .add(compound("datasetContact", Json.createArrayBuilder()
+                        .add(Json.createObjectBuilder()
+                                .add("datasetContactName", primitive("datasetContactName", "Doe, Jane"))
+                                .add("datasetContactAffiliation", primitive("datasetContactAffiliation", "KU Leuven"))
+                                .add("datasetContactEmail", primitive("datasetContactEmail", "jane@example.org")))))
+                .add(compound("dsDescription", Json.createArrayBuilder()
+                        .add(Json.createObjectBuilder()
+                                .add("dsDescriptionValue", primitive("dsDescriptionValue", "A dataset for tests.")))))
+                .add(Json.createObjectBuilder()
+                        .add("typeName", "subject")
+                        .add("multiple", true)
+                        .add("typeClass", "controlledVocabulary")
+                        .add("value", Json.createArrayBuilder().add("Computer and Information Science")))
+                .add(compound("keyword", Json.createArrayBuilder()
+                        .add(Json.createObjectBuilder()
+                                .add("keywordValue", primitive("keywordValue", "ro-crate")))
+                        .add(Json.createObjectBuilder()
+                                .add("keywordValue", primitive("keywordValue", "dataverse")))))
+                .add(compound("grantNumber", Json.createArrayBuilder()
+                        .add(Json.createObjectBuilder()
+                                .add("grantNumberAgency", primitive("grantNumberAgency", "FWO")))));
+
+        JsonArrayBuilder files = Json.createArrayBuilder();
+        for (int i = 0; i < fileCount; i++) {
+            JsonObjectBuilder file = Json.createObjectBuilder()
+                    .add("label", "file" + i + ".txt")
+                    .add("restricted", false)
+                    .add("version", 1)
+                    .add("dataFile", Json.createObjectBuilder()
+                            .add("id", 1000 + i)
+                            .add("filename", "file" + i + ".txt")
+                            .add("contentType", "text/plain")
+                            .add("filesize", 6)
+                            .add("storageIdentifier", "file://18b3c0ffee" + i)
+                            .add("checksum", Json.createObjectBuilder()
+                                    .add("type", "MD5")
+                                    .add("value", "d41d8cd98f00b204e9800998ecf8427e")));
+            if (directoryLabel.apply(i) != null) {
+                file.add("directoryLabel", directoryLabel.apply(i));
+            }
+            files.add(file);
+        }
+
+        return Json.createObjectBuilder()
+                .add("id", 42)
+                .add("identifier", "FK2/ABCDEF")
+                .add("persistentUrl", "https://doi.org/10.5072/FK2/ABCDEF")
+                .add("protocol", "doi")
+                .add("authority", "10.5072")
+                .add("publisher", "Demo Dataverse")
+                .add("datasetVersion", Json.createObjectBuilder()
+                        .add("id", 7)
+                        .add("versionState", "RELEASED")
+                        .add("publicationDate", "2024-01-31")
+                        .add("license", Json.createObjectBuilder()
+                                .add("name", "CC0 1.0")
+                                .add("uri", "http://creativecommons.org/publicdomain/zero/1.0"))
+                        .add("metadataBlocks", Json.createObjectBuilder()
+                                .add("citation", Json.createObjectBuilder()
+                                        .add("displayName", "Citation Metadata")
+                                        .add("name", "citation")
+                                        .add("fields", fields)))
+                        .add("files", files))
+                .build();
+    }
+}